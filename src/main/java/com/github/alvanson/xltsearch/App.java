@@ -57,7 +57,9 @@ public class App extends Application {
     private static final int SCENE_HEIGHT = 480;
 
     @FXML private Label folderPathLabel;
+    @FXML private Button openFolderButton;
     @FXML private Label indexDetailsLabel;
+    @FXML private Button configureButton;
     @FXML private TextField queryField;
     @FXML private Button searchButton;
     @FXML private TextField limitField;
@@ -168,6 +170,11 @@ public class App extends Application {
             indexMessageLabel.textProperty().bind(newValue.indexMessageProperty());
             indexProgress.progressProperty().unbind();
             indexProgress.progressProperty().bind(newValue.indexProgressProperty());
+            // index being closed after a cancelled update: nothing to open or configure yet
+            openFolderButton.disableProperty().unbind();
+            openFolderButton.disableProperty().bind(newValue.closingProperty());
+            configureButton.disableProperty().unbind();
+            configureButton.disableProperty().bind(newValue.closingProperty());
         });
 
         fileNameCol.setCellValueFactory((r) ->
@@ -232,10 +239,14 @@ public class App extends Application {
         DirectoryChooser directoryChooser = new DirectoryChooser();
         File dir = directoryChooser.showDialog(stage);
         if (dir != null) {
-            if (catalog.get() != null) {
-                catalog.get().close();
+            Catalog c = catalog.get();
+            if (c != null) {
+                c.close();
+                // may be the same folder: wait for its index to be closed
+                c.whenIndexClosed(() -> catalog.set(new Catalog(dir)));
+            } else {
+                catalog.set(new Catalog(dir));
             }
-            catalog.set(new Catalog(dir));
         }  // do nothing on cancel
     }
 
@@ -304,7 +315,7 @@ public class App extends Application {
             } else {
                 properties.remove("last.config");
             }
-            c.close();
+            c.closeAndWait();
         }
     }
 }
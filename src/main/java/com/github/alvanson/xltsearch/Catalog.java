@@ -20,8 +20,12 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import javafx.application.Platform;
+import javafx.beans.binding.Bindings;
+import javafx.beans.binding.NumberBinding;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
 import javafx.beans.property.ReadOnlyDoubleProperty;
 import javafx.beans.property.ReadOnlyListProperty;
 import javafx.beans.property.ReadOnlyStringProperty;
@@ -30,19 +34,28 @@ import javafx.beans.property.ReadOnlyListWrapper;
 import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.collections.FXCollections;
 import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
+import javafx.event.EventHandler;
 
 class Catalog {
     static final String CATALOG_DIR = ".xltstore";
+    private static final long RUN_CACHE_SIZE = 1L << 30;   // bytes
+    private static final long PARSE_QUEUE_BUDGET = 1L << 20;    // bytes: dockets hold no content
 
     private final File root;
     private Config config;
     private long indexStart;  // -1 == not currently indexing
 
     private SelectTask selectTask;
-    private ParseTask parseTask;
-    private IndexTask indexTask;
+    private final List<ParseTask> parseTasks = new ArrayList<>();
+    private String parseMessage = "";
+    private final List<IndexTask> indexTasks = new ArrayList<>();
+    private IndexSession indexSession;
+    private IndexSession closingSession;    // cancelled, but still committing
+    private final List<Runnable> whenClosed = new ArrayList<>();
     private SearchTask searchTask;
 
+    private final ReadOnlyBooleanWrapper closing = new ReadOnlyBooleanWrapper();
     private final ReadOnlyStringWrapper indexDetails = new ReadOnlyStringWrapper();
     private final ReadOnlyStringWrapper indexMessage = new ReadOnlyStringWrapper();
     private final ReadOnlyDoubleWrapper indexProgress = new ReadOnlyDoubleWrapper();
@@ -64,7 +77,7 @@ class Catalog {
         if (dir.exists()) {
             for (String name : dir.list()) {
                 File file = new File(dir.getPath() + File.separator + name);
-                if (file.isDirectory()) {
+                if (file.isDirectory() && !name.startsWith(".")) {   // e.g. Config.CACHE_DIR
                     configs.add(name);
                 }
             }
@@ -88,43 +101,130 @@ class Catalog {
     void open(String name) {
         close();
         if (name != null) {
-            config = getConfig(name);   // will create config if !exists
-            config.resolve();
-            clearMessages();
+            whenIndexClosed(() -> {
+                config = getConfig(name);   // will create config if !exists
+                config.resolve();
+                clearMessages();
+            });
         }
     }
 
     void updateIndex() {
+        cancelAllTasks();
+        whenIndexClosed(this::startUpdate);
+    }
+
+    private void startUpdate() {
         if (config == null || !config.isResolved()) {
             logger.error("Cannot update index: invalid configuration");
             return;
         }
-        cancelAllTasks();
         indexStart = System.currentTimeMillis();
         // set last.updated (temporarily) to UPDATE_FAILED in event of crash
         config.setLastUpdated(Config.INDEX_UPDATE_FAILED);
+        // discard temporary files left by an interrupted update
+        config.clearTempDir();
         // initialize queues
-        BlockingQueue<Docket> parseQueue = new ArrayBlockingQueue<>(1); // lean queue
-        BlockingQueue<Docket> indexQueue = new ArrayBlockingQueue<>(1); // lean queue
+        // bounded by bytes in flight: many small dockets or one large one
+        DocketQueue parseQueue = new DocketQueue("parse", PARSE_QUEUE_BUDGET);
+        DocketQueue indexQueue = new DocketQueue("index", config.getQueueBudget());
         // initalize tasks
-        selectTask = new SelectTask(root, config, parseQueue);
-        parseTask = new ParseTask(root, parseQueue, indexQueue);
-        indexTask = new IndexTask(config, indexQueue);
-        // communicate progress (use parseTask for current file, indexTask for %)
-        parseTask.messageProperty().addListener((o, oldValue, newValue) -> updateIndexStatus());
-        indexProgress.bind(indexTask.progressProperty());
-        indexTask.setOnSucceeded((event) -> {
-            if (indexTask.getValue() && parseTask.getValue() && selectTask.getValue()) {
+        Manifest manifest = new Manifest(config.getManifestFile(), config.getHashAlgorithm());
+        manifest.open();
+        Progress progress = new Progress();
+        ParseReport report = new ParseReport(config.getParseReportFile());
+        final TextCache runCache = newRunCache(config, indexStart);
+        TextCache cache = config.getCacheSize() > 0 ?
+            new TextCache(config.getCacheDir(), config.getCacheSize()) : runCache;
+        DuplicateTracker duplicates = new DuplicateTracker();
+        indexSession = new IndexSession(config, manifest, config.getIndexThreads());
+        selectTask = new SelectTask(root, config, parseQueue, indexSession, manifest, progress);
+        parseTasks.clear();
+        AtomicInteger parseWorkers = new AtomicInteger(config.getParseThreads());
+        for (int i = 0; i < config.getParseThreads(); i++) {
+            parseTasks.add(new ParseTask(root, config, parseQueue, indexQueue, parseWorkers,
+                indexSession, report, cache, duplicates));
+        }
+        indexTasks.clear();
+        for (int i = 0; i < config.getIndexThreads(); i++) {
+            indexTasks.add(new IndexTask(config, indexQueue, indexSession, manifest, progress));
+        }
+        // communicate progress (use parseTasks for current file; selectTask and indexTasks all
+        // report shared progress, but unchanged files are only counted by selectTask)
+        for (ParseTask parseTask : parseTasks) {
+            parseTask.messageProperty().addListener((o, oldValue, newValue) -> {
+                parseMessage = newValue;
+                updateIndexStatus();
+            });
+        }
+        NumberBinding progressBinding = Bindings.max(selectTask.progressProperty(), 0);
+        for (IndexTask indexTask : indexTasks) {
+            progressBinding = Bindings.max(progressBinding, indexTask.progressProperty());
+        }
+        indexProgress.bind(progressBinding);
+        EventHandler<WorkerStateEvent> onIndexTaskSucceeded = (event) -> {
+            if (!isIndexing() || !indexTasks.stream().allMatch(Task::isDone)) {
+                return;     // wait for last index task
+            }
+            if (Boolean.TRUE.equals(selectTask.getValue()) &&
+                    parseTasks.stream().allMatch((t) -> Boolean.TRUE.equals(t.getValue())) &&
+                    indexTasks.stream().allMatch((t) -> Boolean.TRUE.equals(t.getValue()))) {
                 // everything worked
+                manifest.commit();
                 config.setLastUpdated(indexStart);
+                config.setLastCheckpoint(0);    // nothing left to resume
             }   // else: index already marked INDEX_UPDATE_FAILED
+            logger.info(parseQueue.getStatistics());
+            logger.info(indexQueue.getStatistics());
+            if (duplicates.getReused() > 0) {
+                logger.info("{} file(s) indexed from previously extracted text",
+                    duplicates.getReused());
+            }
+            if (report.getSkipped() > 0 || report.getMetadataOnly() > 0) {
+                logger.info("Parse filter: {} file(s) skipped, {} indexed by metadata only",
+                    report.getSkipped(), report.getMetadataOnly());
+            }
+            if (report.getFailed() > 0 || report.getTimedOut() > 0) {
+                logger.info("{} file(s) could not be parsed, {} timed out: see {}",
+                    report.getFailed(), report.getTimedOut(), report.getFile());
+            }
+            if (report.getLeaked() > 0) {
+                logger.warn("{} timed out parse(s) could not be stopped and are still running " +
+                    "(forked parsing avoids this)", report.getLeaked());
+            }
+            if (runCache != null) {
+                runCache.delete();
+            }
             indexStart = -1;
             clearMessages();
-        });
+        };
+        // run cache is of no further use once the update ends, however it ends
+        List<IndexTask> runIndexTasks = new ArrayList<>(indexTasks);
+        EventHandler<WorkerStateEvent> onIndexTaskStopped = (event) -> {
+            if (runCache != null && runIndexTasks.stream().allMatch(Task::isDone)) {
+                runCache.delete();
+            }
+        };
+        for (IndexTask indexTask : indexTasks) {
+            indexTask.setOnSucceeded(onIndexTaskSucceeded);
+            indexTask.setOnFailed(onIndexTaskStopped);
+            indexTask.setOnCancelled(onIndexTaskStopped);
+        }
         // start threads
         startTask(selectTask);
-        startTask(parseTask);
-        startTask(indexTask);
+        for (ParseTask parseTask : parseTasks) {
+            startTask(parseTask);
+        }
+        for (IndexTask indexTask : indexTasks) {
+            startTask(indexTask);
+        }
+    }
+
+    // without a persistent cache, duplicates are shared through a cache for this update only
+    // (a file is hashed before parsing if another of its size is found: see SelectTask.submit)
+    static TextCache newRunCache(Config config, long id) {
+        return config.getCacheSize() == 0 && config.isContentHash() ?
+            new TextCache(new File(config.getTempDir(), "cache-" + id), RUN_CACHE_SIZE) : null;
     }
 
     private void updateIndexDetails() {
@@ -140,10 +240,12 @@ class Catalog {
             indexMessage.set("");
             indexProgress.unbind();
             indexProgress.set(0);
-        } else if (isIndexing() && parseTask != null) {
+        } else if (closing.get()) {
+            indexMessage.set("Closing index...");
+        } else if (isIndexing() && !parseTasks.isEmpty()) {
             indexMessage.set(String.format("%.0f%%, processing %s",
                 Math.max(Math.floor(indexProgress.get()*100), 0),   // avoid -%
-                parseTask.messageProperty().get()));
+                parseMessage));
         } else {    // no longer updating
             indexMessage.set(config.getStatus());
             indexProgress.unbind(); // not/no longer updating
@@ -167,7 +269,9 @@ class Catalog {
             searchTask.cancel();
         }
         // initalize task
-        searchTask = new SearchTask(root, config, query, limit);
+        // while updating, search documents indexed so far
+        searchTask = new SearchTask(root, config, isIndexing() ? indexSession : null,
+            query, limit);
         searchDetails.bind(searchTask.messageProperty());
         searchTask.setOnSucceeded((event) -> {
             // populate search results
@@ -194,19 +298,51 @@ class Catalog {
         if (searchTask != null) {
             searchTask.cancel();
         }
-        if (indexTask != null) {
+        for (IndexTask indexTask : indexTasks) {
             indexTask.cancel();
+            indexTask.abandon();    // if it never started
         }
-        if (parseTask != null) {
+        for (ParseTask parseTask : parseTasks) {
             parseTask.cancel();
         }
         if (selectTask != null) {
             selectTask.cancel();
         }
+        // index must be closed (freeing write.lock) before config is closed or writer
+        // reopened: closing commits a checkpoint, so wait for it off the FX thread
+        if (indexSession != null && !indexSession.isClosed()) {
+            closingSession = indexSession;
+            closing.set(true);
+            closingSession.whenClosed(() -> Platform.runLater(this::indexClosed));
+        }
+        indexSession = null;
         indexStart = -1;
         clearMessages();
     }
 
+    // run `action` (on the FX thread) once a cancelled update has closed the index
+    void whenIndexClosed(Runnable action) {
+        if (closing.get()) {
+            whenClosed.add(action);
+        } else {
+            action.run();
+        }
+    }
+
+    private void indexClosed() {
+        if (!closing.get()) {
+            return;     // already done by closeAndWait()
+        }
+        closing.set(false);
+        closingSession = null;
+        clearMessages();
+        List<Runnable> actions = new ArrayList<>(whenClosed);
+        whenClosed.clear();
+        for (Runnable action : actions) {
+            whenIndexClosed(action);    // an action may cancel another update
+        }
+    }
+
     void clearMessages() {
         updateIndexDetails();
         updateIndexStatus();
@@ -217,10 +353,27 @@ class Catalog {
 
     void close() {
         cancelAllTasks();
-        if (config != null) {
-            config.close();
+        whenIndexClosed(() -> {
+            if (config != null) {
+                config.close();
+            }
+            config = null;
+        });
+    }
+
+    // on exit: close, waiting (on the FX thread) for the index to close
+    void closeAndWait() {
+        close();
+        if (closingSession != null) {
+            try {
+                closingSession.awaitClosed();
+            } catch (InterruptedException ex) {
+                logger.warn("Interrupted while closing index", ex);
+                Thread.currentThread().interrupt();
+                return;
+            }
+            indexClosed();
         }
-        config = null;
     }
 
     String getConfigName() {
@@ -236,6 +389,9 @@ class Catalog {
     boolean isIndexing() {
         return indexStart >= 0;
     }
+    ReadOnlyBooleanProperty closingProperty() {
+        return closing.getReadOnlyProperty();
+    }
     ReadOnlyStringProperty indexDetailsProperty() {
         return indexDetails.getReadOnlyProperty();
     }
@@ -19,6 +19,8 @@ import org.apache.lucene.analysis.en.EnglishAnalyzer;
 import org.apache.lucene.analysis.standard.ClassicAnalyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.standard.UAX29URLEmailAnalyzer;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.TieredMergePolicy;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.DefaultSimilarity;
 import org.apache.lucene.search.similarities.Similarity;
@@ -27,6 +29,7 @@ import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.util.Version;
 import org.apache.tika.metadata.Message;
+import org.apache.tika.metadata.Metadata;
 import org.apache.tika.metadata.Property;
 import org.apache.tika.metadata.TikaCoreProperties;
 import org.slf4j.Logger;
@@ -42,6 +45,7 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
@@ -52,16 +56,24 @@ class Config {
     static final long INDEX_UPDATE_FAILED = -1;
     static final long INDEX_NEVER_CREATED = -2;
     static final long INDEX_INVALIDATED = -3;
+    // bumped when the fields indexed for a file change, so that an index written before is
+    // rebuilt rather than left without them: 2 == contenttype added
+    private static final int INDEX_FORMAT = 2;
 
     private static final String CONFIG_FILE = "config";
     private static final String CONFIG_COMMENT = "XLTSearch Index Configuration";
     private static final String CONFIG_DEFAULTS = "/config.defaults";
     // hash.algorithm
-    private static final Map<String,String> HASH_ALGORITHM =
-        Collections.unmodifiableMap(new LinkedHashMap<String,String>() {{
-            put("MD5", "MD5");
-            put("SHA-1", "SHA-1");
-            put("SHA-256", "SHA-256");
+    private static final Map<String,Supplier<Hasher>> HASH_ALGORITHM =
+        Collections.unmodifiableMap(new LinkedHashMap<String,Supplier<Hasher>>() {{
+            put("MD5", () -> new Hasher.Digest("MD5"));
+            put("SHA-1", () -> new Hasher.Digest("SHA-1"));
+            put("SHA-256", () -> new Hasher.Digest("SHA-256"));
+            // non-cryptographic: faster, sufficient for change detection
+            put("xxHash64", Hasher.XXHash64::new);
+            if (Hasher.Crc32c.isAvailable()) {
+                put("CRC32C", Hasher.Crc32c::new);
+            }
         }});
     // lucene.version
     private static final Map<String,Version> LUCENE_VERSION =
@@ -96,6 +108,214 @@ class Config {
             });
             put("RAM", (f) -> new RAMDirectory());
         }});
+    // audio, video and images: little or no text worth extracting, so indexed by path and
+    // detected type only
+    private static final Map<String,ParseFilter.Action> MEDIA_RULES =
+        Collections.unmodifiableMap(new HashMap<String,ParseFilter.Action>() {{
+            put("audio/*", ParseFilter.Action.METADATA);
+            put("video/*", ParseFilter.Action.METADATA);
+            put("image/*", ParseFilter.Action.METADATA);
+        }});
+    // parse.filter (media type -> action, see ParseFilter)
+    private static final Map<String,Map<String,ParseFilter.Action>> PARSE_FILTER =
+        Collections.unmodifiableMap(new LinkedHashMap<String,Map<String,ParseFilter.Action>>() {{
+            put("None", Collections.emptyMap());
+            put("Media", MEDIA_RULES);
+            put("Media and Binaries", new HashMap<String,ParseFilter.Action>() {{
+                putAll(MEDIA_RULES);
+                put("application/octet-stream", ParseFilter.Action.SKIP);   // unrecognized
+                put("application/x-executable", ParseFilter.Action.SKIP);
+                put("application/x-sharedlib", ParseFilter.Action.SKIP);
+                put("application/x-msdownload", ParseFilter.Action.SKIP);
+                put("application/x-dosexec", ParseFilter.Action.SKIP);
+                put("application/x-iso9660-image", ParseFilter.Action.SKIP);
+                put("application/java-vm", ParseFilter.Action.SKIP);
+            }});
+        }});
+    // parse.maxsize (bytes, larger files are indexed by metadata only, 0 == no limit)
+    private static final Map<String,Long> PARSE_MAXSIZE =
+        Collections.unmodifiableMap(new LinkedHashMap<String,Long>() {{
+            put("Unlimited", 0L);
+            put("10 MB", 10L << 20);
+            put("100 MB", 100L << 20);
+            put("1 GB", 1L << 30);
+        }});
+    // select.include (glob patterns, see SelectFilter: free-form)
+    private static final Map<String,String> SELECT_INCLUDE =
+        Collections.unmodifiableMap(new LinkedHashMap<String,String>() {{
+            put("All Files", "");
+            put("Documents", "*.txt,*.rtf,*.pdf,*.doc,*.docx,*.odt,*.xls,*.xlsx,*.ods," +
+                "*.ppt,*.pptx,*.odp,*.htm,*.html,*.eml,*.msg");
+        }});
+    // select.exclude (glob patterns, see SelectFilter: free-form)
+    private static final Map<String,String> SELECT_EXCLUDE =
+        Collections.unmodifiableMap(new LinkedHashMap<String,String>() {{
+            put("None", "");
+            put("Common", ".git,.svn,.hg,node_modules,target,build,*.bak,*.tmp,*~");
+        }});
+    // select.maxsize (bytes, larger files are not selected, 0 == no limit)
+    private static final Map<String,Long> SELECT_MAXSIZE =
+        Collections.unmodifiableMap(new LinkedHashMap<String,Long>() {{
+            put("Unlimited", 0L);
+            put("10 MB", 10L << 20);
+            put("100 MB", 100L << 20);
+            put("1 GB", 1L << 30);
+            put("10 GB", 10L << 30);
+        }});
+    // change.detection (true == rehash every file)
+    private static final Map<String,Boolean> CHANGE_DETECTION =
+        Collections.unmodifiableMap(new LinkedHashMap<String,Boolean>() {{
+            put("Size/Modified", false);
+            put("Full Rehash", true);
+        }});
+    // hash.threads
+    private static final Map<String,Integer> HASH_THREADS =
+        Collections.unmodifiableMap(new LinkedHashMap<String,Integer>() {{
+            put("1", 1);
+            put("2", 2);
+            put("4", 4);
+            put("8", 8);
+            put("16", 16);
+        }});
+    // parse.threads (0 == one per available processor)
+    private static final Map<String,Integer> PARSE_THREADS =
+        Collections.unmodifiableMap(new LinkedHashMap<String,Integer>() {{
+            put("Auto", 0);
+            put("1", 1);
+            put("2", 2);
+            put("4", 4);
+            put("8", 8);
+            put("16", 16);
+            put("32", 32);
+        }});
+    // queue.budget (estimated bytes of parsed dockets queued for or being indexed: each parse
+    // worker may hold up to 1/DocketBatcher.BUDGET_SHARE more in a batch not yet queued)
+    private static final Map<String,Long> QUEUE_BUDGET =
+        Collections.unmodifiableMap(new LinkedHashMap<String,Long>() {{
+            put("16 MB", 16L << 20);
+            put("64 MB", 64L << 20);
+            put("256 MB", 256L << 20);
+        }});
+    // index.threads
+    private static final Map<String,Integer> INDEX_THREADS =
+        Collections.unmodifiableMap(new LinkedHashMap<String,Integer>() {{
+            put("1", 1);
+            put("2", 2);
+            put("4", 4);
+            put("8", 8);
+        }});
+    // index.rambuffer (MB of buffered documents before a segment is flushed)
+    private static final Map<String,Double> INDEX_RAMBUFFER =
+        Collections.unmodifiableMap(new LinkedHashMap<String,Double>() {{
+            put("16 MB", 16.0);
+            put("64 MB", 64.0);
+            put("256 MB", 256.0);
+            put("1 GB", 1024.0);
+        }});
+    // index.maxdocs (buffered documents before a segment is flushed, -1 == by RAM only)
+    private static final Map<String,Integer> INDEX_MAXDOCS =
+        Collections.unmodifiableMap(new LinkedHashMap<String,Integer>() {{
+            put("Unlimited", IndexWriterConfig.DISABLE_AUTO_FLUSH);
+            put("1000", 1000);
+            put("10000", 10000);
+            put("100000", 100000);
+        }});
+    // index.compound (fraction of index size up to which merged segments use compound files)
+    private static final Map<String,Double> INDEX_COMPOUND =
+        Collections.unmodifiableMap(new LinkedHashMap<String,Double>() {{
+            put("Never", 0.0);
+            put("Small Segments", TieredMergePolicy.DEFAULT_NO_CFS_RATIO);
+            put("Always", 1.0);
+        }});
+    // merge.factor (segments per tier: higher == faster indexing, more segments to search)
+    private static final Map<String,Integer> MERGE_FACTOR =
+        Collections.unmodifiableMap(new LinkedHashMap<String,Integer>() {{
+            put("5", 5);
+            put("10", 10);
+            put("20", 20);
+            put("50", 50);
+        }});
+    // merge.maxsegment (MB, segments at this size are no longer merged)
+    private static final Map<String,Double> MERGE_MAXSEGMENT =
+        Collections.unmodifiableMap(new LinkedHashMap<String,Double>() {{
+            put("1 GB", 1024.0);
+            put("5 GB", 5120.0);
+            put("20 GB", 20480.0);
+        }});
+    // merge.threads (0 == Lucene default for available processors)
+    private static final Map<String,Integer> MERGE_THREADS =
+        Collections.unmodifiableMap(new LinkedHashMap<String,Integer>() {{
+            put("Auto", 0);
+            put("1", 1);
+            put("2", 2);
+            put("4", 4);
+        }});
+    // checkpoint.docs (files indexed between checkpoint commits, 0 == never)
+    private static final Map<String,Integer> CHECKPOINT_DOCS =
+        Collections.unmodifiableMap(new LinkedHashMap<String,Integer>() {{
+            put("Off", 0);
+            put("10000", 10000);
+            put("100000", 100000);
+            put("1000000", 1000000);
+        }});
+    // checkpoint.interval (seconds between checkpoint commits, 0 == never)
+    private static final Map<String,Integer> CHECKPOINT_INTERVAL =
+        Collections.unmodifiableMap(new LinkedHashMap<String,Integer>() {{
+            put("Off", 0);
+            put("1 min", 60);
+            put("10 min", 600);
+            put("1 hr", 3600);
+        }});
+    // search.refresh (min seconds between refreshes of searches during an update, 0 == never)
+    private static final Map<String,Integer> SEARCH_REFRESH =
+        Collections.unmodifiableMap(new LinkedHashMap<String,Integer>() {{
+            put("Off", 0);
+            put("1 s", 1);
+            put("5 s", 5);
+            put("30 s", 30);
+        }});
+    // parse.timeout (seconds, 0 == no limit): only reliable with parse.mode "Forked JVM", as
+    // an in-process parse which ignores interruption is abandoned but keeps running (see
+    // ParseReport)
+    private static final Map<String,Integer> PARSE_TIMEOUT =
+        Collections.unmodifiableMap(new LinkedHashMap<String,Integer>() {{
+            put("None", 0);
+            put("10 s", 10);
+            put("30 s", 30);
+            put("1 min", 60);
+            put("5 min", 300);
+            put("15 min", 900);
+        }});
+    // parse.mode (true == parse in child JVMs)
+    private static final Map<String,Boolean> PARSE_MODE =
+        Collections.unmodifiableMap(new LinkedHashMap<String,Boolean>() {{
+            put("In-process", false);
+            put("Forked JVM", true);
+        }});
+    // fork.recycle (documents parsed before a child JVM is replaced)
+    private static final Map<String,Integer> FORK_RECYCLE =
+        Collections.unmodifiableMap(new LinkedHashMap<String,Integer>() {{
+            put("100", 100);
+            put("1000", 1000);
+            put("10000", 10000);
+        }});
+    // fork.heap (maximum heap of each child JVM, as passed to -Xmx)
+    private static final Map<String,String> FORK_HEAP =
+        Collections.unmodifiableMap(new LinkedHashMap<String,String>() {{
+            put("256 MB", "256m");
+            put("512 MB", "512m");
+            put("1 GB", "1g");
+            put("2 GB", "2g");
+        }});
+    // cache.size (bytes, 0 == no text cache)
+    private static final Map<String,Long> CACHE_SIZE =
+        Collections.unmodifiableMap(new LinkedHashMap<String,Long>() {{
+            put("Off", 0L);
+            put("256 MB", 256L << 20);
+            put("1 GB", 1L << 30);
+            put("4 GB", 4L << 30);
+            put("16 GB", 16L << 30);
+        }});
     // property map
     private static final Map<String,Map> PROPERTY_MAP =
         Collections.unmodifiableMap(new LinkedHashMap<String,Map>() {{
@@ -104,8 +324,71 @@ class Config {
             put("lucene.analyzer", LUCENE_ANALYZER);
             put("scoring.model", SCORING_MODEL);
             put("directory.type", DIRECTORY_TYPE);
+            put("parse.filter", PARSE_FILTER);
+            put("parse.maxsize", PARSE_MAXSIZE);
+            put("select.include", SELECT_INCLUDE);
+            put("select.exclude", SELECT_EXCLUDE);
+            put("select.maxsize", SELECT_MAXSIZE);
+            put("change.detection", CHANGE_DETECTION);
+            put("hash.threads", HASH_THREADS);
+            put("parse.threads", PARSE_THREADS);
+            put("parse.timeout", PARSE_TIMEOUT);
+            put("queue.budget", QUEUE_BUDGET);
+            put("index.threads", INDEX_THREADS);
+            put("index.rambuffer", INDEX_RAMBUFFER);
+            put("index.maxdocs", INDEX_MAXDOCS);
+            put("index.compound", INDEX_COMPOUND);
+            put("merge.factor", MERGE_FACTOR);
+            put("merge.maxsegment", MERGE_MAXSEGMENT);
+            put("merge.threads", MERGE_THREADS);
+            put("checkpoint.docs", CHECKPOINT_DOCS);
+            put("checkpoint.interval", CHECKPOINT_INTERVAL);
+            put("search.refresh", SEARCH_REFRESH);
+            put("parse.mode", PARSE_MODE);
+            put("fork.recycle", FORK_RECYCLE);
+            put("fork.heap", FORK_HEAP);
+            put("cache.size", CACHE_SIZE);
+        }});
+    // properties which may be changed without invalidating the index
+    private static final Set<String> TUNING_PROPERTIES =
+        Collections.unmodifiableSet(new HashSet<String>() {{
+            add("select.include");
+            add("select.exclude");
+            add("select.maxsize");
+            add("change.detection");
+            add("hash.threads");
+            add("parse.threads");
+            add("parse.timeout");
+            add("queue.budget");
+            add("index.threads");
+            add("index.rambuffer");
+            add("index.maxdocs");
+            add("index.compound");
+            add("merge.factor");
+            add("merge.maxsegment");
+            add("merge.threads");
+            add("checkpoint.docs");
+            add("checkpoint.interval");
+            add("search.refresh");
+            add("parse.mode");
+            add("fork.recycle");
+            add("fork.heap");
+            add("cache.size");
+        }});
+    // properties which also accept any value in place of a named option
+    private static final Set<String> FREE_FORM_PROPERTIES =
+        Collections.unmodifiableSet(new HashSet<String>() {{
+            add("select.include");
+            add("select.exclude");
         }});
     private static final String INDEX_DIR = "index";
+    private static final String MANIFEST_FILE = "manifest";
+    private static final String TEMP_DIR = "tmp";
+    private static final String PARSE_REPORT_FILE = "parse-report.txt";
+    static final String CACHE_DIR = ".cache";   // alongside config directories
+    // hashsums shorter than this only detect changes: a 32-bit hashsum is as likely as not
+    // to collide somewhere among ~77K files, so it cannot stand for a file's content
+    private static final int MIN_CONTENT_HASH_LENGTH = 8;   // bytes
 
     // index fields
     final String contentField = "content";
@@ -129,6 +412,7 @@ class Config {
             put("rights", TikaCoreProperties.RIGHTS);
             put("source", TikaCoreProperties.SOURCE);
             put("type", TikaCoreProperties.TYPE);
+            put("contenttype", Property.internalText(Metadata.CONTENT_TYPE));   // detected
             put("title", TikaCoreProperties.TITLE);
             put("description", TikaCoreProperties.DESCRIPTION);
             put("keywords", TikaCoreProperties.KEYWORDS);
@@ -145,6 +429,8 @@ class Config {
     final String pathField = "path";
     final String titleField = "title";
     final String hashSumField = "hashsum";
+    final String sizeField = "filesize";
+    final String modifiedField = "filemodified";
 
     private final File configDir;
     private final String name;
@@ -152,10 +438,33 @@ class Config {
 
     private boolean resolved = false;
     private String hashAlgorithm = null;
+    private Supplier<Hasher> hasherFactory = null;
+    private boolean contentHash = false;
     private Version version = null;
     private Analyzer analyzer = null;
     private Similarity similarity = null;
     private Directory directory = null;
+    private ParseFilter parseFilter = null;
+    private SelectFilter selectFilter = null;
+    private boolean rehashForced = false;
+    private int hashThreads = 1;
+    private int parseThreads = 1;
+    private int parseTimeout = 0;
+    private long queueBudget = 0;
+    private int indexThreads = 1;
+    private double ramBufferSize = 0;
+    private int maxBufferedDocs = 0;
+    private double compoundRatio = 0;
+    private int mergeFactor = 0;
+    private double maxMergedSegment = 0;
+    private int mergeThreads = 0;
+    private int checkpointDocs = 0;
+    private int checkpointInterval = 0;
+    private int searchRefresh = 0;
+    private boolean parseForked = false;
+    private int forkRecycle = 1;
+    private String forkHeap = null;
+    private long cacheSize = 0;
 
     private final Logger logger = LoggerFactory.getLogger(Config.class);
 
@@ -170,10 +479,13 @@ class Config {
     void resolve() {
         if (resolved) { return; }
         // else: resolved == false
+        checkIndexFormat();
         if (getLastUpdated() == INDEX_INVALIDATED) { return; }
         // hashAlgorithm
-        hashAlgorithm = get("hash.algorithm");
-        if (hashAlgorithm == null) { return; }
+        hasherFactory = get("hash.algorithm");
+        if (hasherFactory == null) { return; }
+        hashAlgorithm = getValue("hash.algorithm");
+        contentHash = hasherFactory.get().getDigestLength() >= MIN_CONTENT_HASH_LENGTH;
         // version
         version = get("lucene.version");
         if (version == null) { return; }
@@ -191,6 +503,93 @@ class Config {
         directory = directoryFactory.apply(
             new File(configDir.getPath() + File.separator + INDEX_DIR));
         if (directory == null) { return; }
+        // parse filter
+        Map<String,ParseFilter.Action> typeRules = get("parse.filter");
+        if (typeRules == null) { return; }
+        Long maxSize = get("parse.maxsize");
+        if (maxSize == null) { return; }
+        parseFilter = new ParseFilter(typeRules, maxSize);
+        // select filter
+        String includes = get("select.include");
+        if (includes == null) { return; }
+        String excludes = get("select.exclude");
+        if (excludes == null) { return; }
+        Long selectMaxSize = get("select.maxsize");
+        if (selectMaxSize == null) { return; }
+        selectFilter = new SelectFilter(includes, excludes, selectMaxSize);
+        // change detection
+        Boolean rehash = get("change.detection");
+        if (rehash == null) { return; }
+        rehashForced = rehash;
+        // hash threads
+        Integer threads = get("hash.threads");
+        if (threads == null) { return; }
+        hashThreads = threads;
+        // parse threads
+        threads = get("parse.threads");
+        if (threads == null) { return; }
+        parseThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        // parse timeout
+        Integer timeout = get("parse.timeout");
+        if (timeout == null) { return; }
+        parseTimeout = timeout;
+        // queue budget
+        Long budget = get("queue.budget");
+        if (budget == null) { return; }
+        queueBudget = budget;
+        // index threads
+        threads = get("index.threads");
+        if (threads == null) { return; }
+        indexThreads = threads;
+        // index writer
+        Double ramBuffer = get("index.rambuffer");
+        if (ramBuffer == null) { return; }
+        ramBufferSize = ramBuffer;
+        Integer maxDocs = get("index.maxdocs");
+        if (maxDocs == null) { return; }
+        maxBufferedDocs = maxDocs;
+        Double compound = get("index.compound");
+        if (compound == null) { return; }
+        compoundRatio = compound;
+        // merges
+        Integer factor = get("merge.factor");
+        if (factor == null) { return; }
+        mergeFactor = factor;
+        Double maxSegment = get("merge.maxsegment");
+        if (maxSegment == null) { return; }
+        maxMergedSegment = maxSegment;
+        threads = get("merge.threads");
+        if (threads == null) { return; }
+        mergeThreads = threads;
+        // checkpoints
+        Integer docs = get("checkpoint.docs");
+        if (docs == null) { return; }
+        checkpointDocs = docs;
+        Integer interval = get("checkpoint.interval");
+        if (interval == null) { return; }
+        checkpointInterval = interval;
+        // near-real-time search
+        Integer refresh = get("search.refresh");
+        if (refresh == null) { return; }
+        searchRefresh = refresh;
+        // parse mode
+        Boolean forked = get("parse.mode");
+        if (forked == null) { return; }
+        parseForked = forked;
+        Integer recycle = get("fork.recycle");
+        if (recycle == null) { return; }
+        forkRecycle = recycle;
+        forkHeap = get("fork.heap");
+        if (forkHeap == null) { return; }
+        // text cache
+        Long cache = get("cache.size");
+        if (cache == null) { return; }
+        if (cache > 0 && !contentHash) {
+            logger.info("Text cache disabled: {} hashsums are too short to identify content",
+                hashAlgorithm);
+            cache = 0L;
+        }
+        cacheSize = cache;
         // we made it: config is properly resolved
         resolved = true;
     }
@@ -208,12 +607,15 @@ class Config {
             return null;
         }
         // look up object
-        T t = (T) PROPERTY_MAP.get(propertyName).get(option);
-        if (t == null) {
+        Object o = PROPERTY_MAP.get(propertyName).get(option);
+        if (o == null && FREE_FORM_PROPERTIES.contains(propertyName)) {
+            o = option;     // value itself
+        }
+        if (o == null) {
             logger.error("Unrecognized option for {}: {}", propertyName, option);
             return null;
         }
-        return t;
+        return (T) o;
     }
 
     String getName() { return name; }
@@ -234,6 +636,14 @@ class Config {
         return properties.getProperty(propertyName);
     }
 
+    boolean isFreeForm(String propertyName) {
+        return FREE_FORM_PROPERTIES.contains(propertyName);
+    }
+
+    boolean isInvalidating(String propertyName) {
+        return !TUNING_PROPERTIES.contains(propertyName);
+    }
+
     long getLastUpdated() {
         long lastUpdated = INDEX_NEVER_CREATED;
         String lastUpdatedStr = properties.getProperty("last.updated");
@@ -269,6 +679,9 @@ class Config {
         long lastUpdated = getLastUpdated();
         if (lastUpdated >= 0) {
             sb.append("Last updated " + new Date(lastUpdated).toString());
+        } else if (lastUpdated == INDEX_UPDATE_FAILED && getLastCheckpoint() > 0) {
+            sb.append("Last update interrupted, will resume from " +
+                new Date(getLastCheckpoint()).toString());
         } else if (lastUpdated == INDEX_UPDATE_FAILED) {
             sb.append("Last update failed");
         } else if (lastUpdated == INDEX_NEVER_CREATED) {
@@ -281,18 +694,75 @@ class Config {
 
     boolean isResolved() { return resolved; }
     String getHashAlgorithm() { return hashAlgorithm; }
+    Hasher newHasher() { return hasherFactory.get(); }
+    // true if files with equal hashsum (and size) may be assumed to have equal content
+    boolean isContentHash() { return contentHash; }
     Version getVersion() { return version; }
     Analyzer getAnalyzer() { return analyzer; }
     Similarity getSimilarity() { return similarity; }
     Directory getDirectory() { return directory; }
+    ParseFilter getParseFilter() { return parseFilter; }
+    SelectFilter getSelectFilter() { return selectFilter; }
+    boolean isRehashForced() { return rehashForced; }
+    int getHashThreads() { return hashThreads; }
+    int getParseThreads() { return parseThreads; }
+    int getParseTimeout() { return parseTimeout; }
+    long getQueueBudget() { return queueBudget; }
+    int getIndexThreads() { return indexThreads; }
+    double getRamBufferSize() { return ramBufferSize; }
+    int getMaxBufferedDocs() { return maxBufferedDocs; }
+    double getCompoundRatio() { return compoundRatio; }
+    int getMergeFactor() { return mergeFactor; }
+    double getMaxMergedSegment() { return maxMergedSegment; }
+    int getMergeThreads() { return mergeThreads; }
+    int getCheckpointDocs() { return checkpointDocs; }
+    int getCheckpointInterval() { return checkpointInterval; }
+    int getSearchRefresh() { return searchRefresh; }
+    boolean isParseForked() { return parseForked; }
+    int getForkRecycle() { return forkRecycle; }
+    String getForkHeap() { return forkHeap; }
+    long getCacheSize() { return cacheSize; }
+
+    File getManifestFile() {
+        return new File(configDir.getPath() + File.separator + MANIFEST_FILE);
+    }
+
+    File getParseReportFile() {
+        return new File(configDir.getPath() + File.separator + PARSE_REPORT_FILE);
+    }
+
+    // text cache shared by all configs using the same hash algorithm
+    File getCacheDir() {
+        return new File(configDir.getParent() + File.separator + CACHE_DIR +
+            File.separator + hashAlgorithm);
+    }
+
+    // scratch space for an index update
+    File getTempDir() {
+        File tempDir = new File(configDir.getPath() + File.separator + TEMP_DIR);
+        if (!tempDir.isDirectory()) {
+            tempDir.mkdirs();
+        }
+        return tempDir;
+    }
+
+    void clearTempDir() {
+        try {
+            deltree(new File(configDir.getPath() + File.separator + TEMP_DIR));
+        } catch (IOException ex) {
+            logger.warn("Could not clear temporary files", ex);
+        }
+    }
 
     void set(String propertyName, String value) {
         if (resolved) {
             logger.error("Cannot set properties on resolved config");
             return;
         }
-        // calling set invalidates index
-        invalidateIndex();
+        // changing an index property invalidates index
+        if (isInvalidating(propertyName) && !value.equals(getValue(propertyName))) {
+            invalidateIndex();
+        }
         properties.setProperty(propertyName, value);
     }
 
@@ -300,6 +770,19 @@ class Config {
         properties.setProperty("last.updated", Long.toString(value));
     }
 
+    // time of last checkpoint of an incomplete update (0 == none)
+    long getLastCheckpoint() {
+        try {
+            return Long.parseLong(properties.getProperty("last.checkpoint", "0"));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    void setLastCheckpoint(long value) {
+        properties.setProperty("last.checkpoint", Long.toString(value));
+    }
+
     void close() {
         if (directory != null) {
             try {
@@ -311,6 +794,19 @@ class Config {
         directory = null;
     }
 
+    // invalidate an index written in an older format (none recorded: format 1)
+    private void checkIndexFormat() {
+        String format = Integer.toString(INDEX_FORMAT);
+        if (format.equals(properties.getProperty("index.format"))) {
+            return;
+        }
+        if (getLastUpdated() == INDEX_NEVER_CREATED) {
+            properties.setProperty("index.format", format);     // to be built in this format
+        } else {
+            invalidateIndex();
+        }
+    }
+
     private void invalidateIndex() {
         if (!Long.toString(INDEX_NEVER_CREATED).equals(properties.getProperty("last.updated"))) {
             setLastUpdated(INDEX_INVALIDATED);
@@ -320,7 +816,11 @@ class Config {
     void deleteIndex() {
         try {
             deltree(new File(configDir.getPath() + File.separator + INDEX_DIR));
+            Files.deleteIfExists(getManifestFile().toPath());
+            Manifest.deleteTempFiles(getManifestFile());
             setLastUpdated(INDEX_NEVER_CREATED);
+            setLastCheckpoint(0);
+            properties.setProperty("index.format", Integer.toString(INDEX_FORMAT));
         } catch (IOException ex) {
             logger.error("Could not delete index", ex);
         }
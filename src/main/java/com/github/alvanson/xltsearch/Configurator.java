@@ -34,6 +34,7 @@ import javafx.scene.control.ButtonType;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
+import javafx.scene.control.ScrollPane;
 import javafx.scene.control.TextField;
 import javafx.scene.image.Image;
 import javafx.scene.layout.BorderPane;
@@ -139,6 +140,7 @@ class Configurator {
                 comboBox.setItems(FXCollections.observableArrayList(
                     config.getOptions(property)));
                 comboBox.setValue(config.getValue(property));
+                comboBox.setEditable(config.isFreeForm(property));
                 comboBox.setMaxWidth(Double.MAX_VALUE);
                 comboBox.valueProperty().addListener((o, ov, nv) -> {
                     dirty = true;
@@ -193,7 +195,13 @@ class Configurator {
             deleteButton.setOnAction((event) -> deleteConfig());
         }
 
-        border.setCenter(grid);
+        // many properties: scroll rather than push the buttons off a small window
+        final ScrollPane scrollPane = new ScrollPane(grid);
+        scrollPane.setFitToWidth(true);
+        scrollPane.setHbarPolicy(ScrollPane.ScrollBarPolicy.NEVER);
+        scrollPane.getStyleClass().add("edge-to-edge");  // no border
+
+        border.setCenter(scrollPane);
     }
 
     @FXML
@@ -281,7 +289,8 @@ class Configurator {
             alert.setContentText("Are you sure you want to rebuild the index?");
             Optional<ButtonType> result = alert.showAndWait();
             if (result.isPresent() && result.get() == ButtonType.OK) {
-                config.deleteIndex();
+                // once a cancelled update has closed the index
+                catalog.get().whenIndexClosed(config::deleteIndex);
                 catalog.get().open(config.getName());
                 catalog.get().updateIndex();
                 hide();
@@ -298,7 +307,7 @@ class Configurator {
             alert.setContentText("");
             alert.showAndWait();
             return;
-        } else if (config.getLastUpdated() >= Config.INDEX_UPDATE_FAILED) {
+        } else if (config.getLastUpdated() >= Config.INDEX_UPDATE_FAILED && isInvalidating()) {
             Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
             alert.setTitle("Confirmation");
             alert.setHeaderText("Saving invalidates index");
@@ -319,6 +328,18 @@ class Configurator {
         drawCenterPane();
     }
 
+    // true if saving would change a property which invalidates the index
+    private boolean isInvalidating() {
+        for (Map.Entry<String,ComboBox<String>> e : optionsMap.entrySet()) {
+            String value = e.getValue().getValue();
+            if (value != null && !value.equals(config.getValue(e.getKey())) &&
+                    config.isInvalidating(e.getKey())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void deleteConfig() {
         Config candidate = config;   // avoid race conditions
         // confim delete
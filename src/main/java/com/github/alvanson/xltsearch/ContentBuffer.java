@@ -0,0 +1,130 @@
+/* Copyright 2016 Evan A. Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.alvanson.xltsearch;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.CharArrayReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// extracted text: held in memory up to `memoryLimit` chars, then spilled to a temporary file
+class ContentBuffer extends Writer {
+    static final int DEFAULT_MEMORY_LIMIT = 1 << 20;    // chars
+
+    private final File tempDir;
+    private final int memoryLimit;
+    private char[] chars = new char[1024];
+    private int length = 0;     // chars in memory
+    private long spilled = 0;   // chars in file
+    private File file = null;
+    private Writer fileWriter = null;
+    private boolean released = false;   // later writes fail (e.g. from an abandoned parse)
+
+    ContentBuffer(File tempDir, int memoryLimit) {
+        this.tempDir = tempDir;
+        this.memoryLimit = memoryLimit;
+    }
+
+    @Override
+    public synchronized void write(char[] cbuf, int off, int len) throws IOException {
+        if (released) {
+            throw new IOException("Content buffer released");
+        }
+        if (fileWriter == null && length + len > memoryLimit) {
+            spill();
+        }
+        if (fileWriter != null) {
+            fileWriter.write(cbuf, off, len);
+            spilled += len;
+        } else {
+            if (length + len > chars.length) {
+                chars = Arrays.copyOf(chars, Math.min(Math.max(chars.length * 2, length + len),
+                                                      memoryLimit));
+            }
+            System.arraycopy(cbuf, off, chars, length, len);
+            length += len;
+        }
+    }
+
+    private void spill() throws IOException {
+        file = File.createTempFile("content", ".txt", tempDir);
+        fileWriter = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(file), StandardCharsets.UTF_8));
+        fileWriter.write(chars, 0, length);
+        spilled = length;
+        chars = null;
+        length = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (fileWriter != null) {
+            fileWriter.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fileWriter != null) {
+            fileWriter.close();
+        }
+    }
+
+    // read back content (call once writing is complete)
+    Reader getReader() throws IOException {
+        if (file != null) {
+            close();
+            return new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8));
+        } else {
+            return new CharArrayReader(chars, 0, length);
+        }
+    }
+
+    long length() {
+        return file != null ? spilled : length;
+    }
+
+    // approximate heap used by buffered content
+    long getMemoryUsage() {
+        return chars != null ? 2L * chars.length : 0;
+    }
+
+    // discard content, deleting temporary file (if any): may be called while another thread is
+    // still writing, which then fails rather than spill to a new file
+    synchronized void release() {
+        released = true;
+        try {
+            close();
+        } catch (IOException ex) {
+            // ignore: deleting anyway
+        }
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+        chars = null;
+        length = 0;
+    }
+}
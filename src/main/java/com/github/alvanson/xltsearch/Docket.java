@@ -15,32 +15,59 @@
 package com.github.alvanson.xltsearch;
 
 import org.apache.tika.metadata.Metadata;
-import org.xml.sax.ContentHandler;
 
 class Docket {
     // sentinel object: all files completed
-    static Docket DONE = new Docket("", "", Status.PASS, 0);
+    static Docket DONE = new Docket("", "", 0, 0, Status.PASS);
 
     static enum Status {
         SELECTED,   // selected by SelectTask
         PARSED,     // parsed by ParseTask
-        PASS,       // pass through (no update required)
+        PASS,       // no update required (handled by SelectTask)
+        FAILED,     // pass through (could not be parsed, retry next update)
+        RELOCATE,   // file moved from oldPath: move indexed document to relPath (not parsed)
+        COPY,       // copy of unchanged file at oldPath: copy its indexed document (not parsed)
+        SKIPPED,    // excluded by parse filter: delete from index
         DELETE      // delete entry from index
     }
 
     final String relPath;
-    final String hashSum;
-    ContentHandler content;
+    String hashSum;     // null until computed by ParseTask
+    final long size;
+    final long lastModified;
+    String oldPath;     // RELOCATE and COPY only
+    boolean incomplete; // parse timed out: indexed without content, retry next update
+    ContentBuffer content;
     Metadata metadata;
     Status status;
-    long workLeft;
 
-    Docket(String relPath, String hashSum, Status status, long workLeft) {
+    Docket(String relPath, String hashSum, long size, long lastModified,
+            Status status) {
         this.relPath = relPath;
         this.hashSum = hashSum;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.oldPath = null;
+        this.incomplete = false;
         this.content = null;
         this.metadata = null;
         this.status = status;
-        this.workLeft = workLeft;
+    }
+
+    // approximate heap used by this docket (content spilled to disk excluded)
+    long estimateBytes() {
+        long bytes = 96 + 2L * relPath.length();
+        if (content != null) {
+            bytes += content.getMemoryUsage();
+        }
+        if (metadata != null) {
+            for (String name : metadata.names()) {
+                bytes += 64 + 2L * name.length();
+                for (String value : metadata.getValues(name)) {
+                    bytes += 48 + 2L * value.length();
+                }
+            }
+        }
+        return bytes;
     }
 }
@@ -0,0 +1,74 @@
+/* Copyright 2016 Evan A. Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.alvanson.xltsearch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// collects dockets for DocketQueue.putAll(): the batch is put when full (by count, or by
+// estimated bytes: at most 1/BUDGET_SHARE of the queue's budget is held outside it), when its
+// oldest docket has waited `maxLatency` (checked by add() and flushIfDue()), or when flushed
+// (a producer must flush before it blocks)
+class DocketBatcher {
+    static final int DEFAULT_SIZE = 256;
+    static final long DEFAULT_LATENCY = 50_000_000L;   // ns
+    static final int BUDGET_SHARE = 16;
+
+    private final DocketQueue queue;
+    private final int maxSize;
+    private final long maxBytes;
+    private final long maxLatency;  // ns
+    private final List<Docket> batch = new ArrayList<>();
+    private final long[] weights;   // estimated bytes of each docket in `batch`
+    private long bytes = 0;         // total of `weights`
+    private long started;           // time first docket was added, ns
+
+    DocketBatcher(DocketQueue queue, int maxSize, long maxLatency) {
+        this.queue = queue;
+        this.maxSize = maxSize;
+        this.maxBytes = queue.getBudget() / BUDGET_SHARE;
+        this.maxLatency = maxLatency;
+        this.weights = new long[maxSize];
+    }
+
+    void add(Docket docket) throws InterruptedException {
+        if (batch.isEmpty()) {
+            started = System.nanoTime();
+        }
+        weights[batch.size()] = docket.estimateBytes();
+        bytes += weights[batch.size()];
+        batch.add(docket);
+        if (batch.size() >= maxSize || bytes >= maxBytes ||
+                System.nanoTime() - started >= maxLatency) {
+            flush();
+        }
+    }
+
+    // put the batch if its oldest docket has waited `maxLatency`: call while producing
+    // dockets that are not added, so that those added earlier are not held back
+    void flushIfDue() throws InterruptedException {
+        if (!batch.isEmpty() && System.nanoTime() - started >= maxLatency) {
+            flush();
+        }
+    }
+
+    void flush() throws InterruptedException {
+        if (!batch.isEmpty()) {
+            queue.putAll(batch, weights);
+            batch.clear();
+            bytes = 0;
+        }
+    }
+}
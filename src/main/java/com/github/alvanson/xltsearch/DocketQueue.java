@@ -0,0 +1,204 @@
+/* Copyright 2016 Evan A. Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.alvanson.xltsearch;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// queue between pipeline stages bounded by the estimated heap used by the dockets it holds
+// (rather than by their number), including dockets taken but not yet released by a consumer:
+// an empty queue always accepts a docket (or batch), however large; putAll() and takeBatch()
+// transfer many dockets for a single lock acquisition
+class DocketQueue {
+    private static class Node {
+        final Docket docket;
+        final long bytes;
+
+        Node(Docket docket, long bytes) {
+            this.docket = docket;
+            this.bytes = bytes;
+        }
+    }
+
+    private final String name;
+    private final long budget;  // bytes
+    private final Deque<Node> nodes = new ArrayDeque<>();
+    private long bytes = 0;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    // statistics for tuning
+    private int peakSize = 0;
+    private long peakBytes = 0;
+    private long putBlockedNanos = 0;
+    private long takeBlockedNanos = 0;
+    private long takes = 0;
+    private long taken = 0;
+
+    DocketQueue(String name, long budget) {
+        this.name = name;
+        this.budget = budget;
+    }
+
+    void put(Docket docket) throws InterruptedException {
+        long weight = docket.estimateBytes();
+        lock.lockInterruptibly();
+        try {
+            if (isFull(weight)) {
+                long start = System.nanoTime();
+                try {
+                    while (isFull(weight)) {
+                        notFull.await();
+                    }
+                } finally {
+                    putBlockedNanos += System.nanoTime() - start;
+                }
+            }
+            enqueue(docket, weight);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // put every docket in `batch`, weighing `weights[i]` bytes (see DocketBatcher), blocking
+    // until the whole batch fits
+    void putAll(List<Docket> batch, long[] weights) throws InterruptedException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long weight = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            weight += weights[i];
+        }
+        lock.lockInterruptibly();
+        try {
+            if (isFull(weight)) {
+                long start = System.nanoTime();
+                try {
+                    while (isFull(weight)) {
+                        notFull.await();
+                    }
+                } finally {
+                    putBlockedNanos += System.nanoTime() - start;
+                }
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                nodes.add(new Node(batch.get(i), weights[i]));
+            }
+            bytes += weight;
+            updatePeaks();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // take at least one and at most `max` dockets into `c`, blocking until one is available:
+    // returns their weight in bytes, which remains charged against the budget until release()
+    long takeBatch(Collection<? super Docket> c, int max) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            if (nodes.isEmpty()) {
+                long start = System.nanoTime();
+                try {
+                    while (nodes.isEmpty()) {
+                        notEmpty.await();
+                    }
+                } finally {
+                    takeBlockedNanos += System.nanoTime() - start;
+                }
+            }
+            int n = 0;
+            long weight = 0;
+            while (n < max && !nodes.isEmpty()) {
+                Node node = nodes.remove();
+                weight += node.bytes;
+                c.add(node.docket);
+                n++;
+            }
+            takes++;
+            taken += n;
+            if (!nodes.isEmpty()) {
+                notEmpty.signal();  // pass on to next consumer
+            }
+            return weight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // called by a consumer once it is done with dockets returned by takeBatch() (before it
+    // puts anything back)
+    void release(long weight) {
+        lock.lock();
+        try {
+            bytes -= weight;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return nodes.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // summary of statistics, e.g. for logging at end of update
+    String getStatistics() {
+        lock.lock();
+        try {
+            return String.format("%s queue: peak %d dockets / %d KB, put blocked %d ms, " +
+                "take blocked %d ms, %.1f dockets per take", name, peakSize, peakBytes >> 10,
+                TimeUnit.NANOSECONDS.toMillis(putBlockedNanos),
+                TimeUnit.NANOSECONDS.toMillis(takeBlockedNanos),
+                takes > 0 ? (double) taken / takes : 0.0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getBudget() {
+        return budget;
+    }
+
+    // as long as nothing is held, any docket fits
+    private boolean isFull(long weight) {
+        return bytes > 0 && bytes + weight > budget;
+    }
+
+    private void enqueue(Docket docket, long weight) {
+        nodes.add(new Node(docket, weight));
+        bytes += weight;
+        updatePeaks();
+        notEmpty.signal();
+    }
+
+    private void updatePeaks() {
+        peakSize = Math.max(peakSize, nodes.size());
+        peakBytes = Math.max(peakBytes, bytes);
+    }
+}
@@ -0,0 +1,63 @@
+/* Copyright 2016 Evan A. Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.alvanson.xltsearch;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+// coordinates ParseTasks so that files with the same hashsum and size are parsed by one
+// worker at a time (hashsums must be long enough to identify content, see
+// Config.isContentHash())
+class DuplicateTracker {
+    private final Map<String,CountDownLatch> inFlight = new HashMap<>();
+    private int reused = 0;
+
+    // returns true if the caller may parse `hashSum`/`size`: caller must then release()
+    synchronized boolean claim(String hashSum, long size) {
+        String key = key(hashSum, size);
+        if (inFlight.containsKey(key)) {
+            return false;
+        }
+        inFlight.put(key, new CountDownLatch(1));
+        return true;
+    }
+
+    // wait for the worker currently parsing `hashSum`/`size` (if any) to release it
+    void await(String hashSum, long size) throws InterruptedException {
+        CountDownLatch latch;
+        synchronized (this) {
+            latch = inFlight.get(key(hashSum, size));
+        }
+        if (latch != null) {
+            latch.await();
+        }
+    }
+
+    synchronized void release(String hashSum, long size) {
+        CountDownLatch latch = inFlight.remove(key(hashSum, size));
+        if (latch != null) {
+            latch.countDown();
+        }
+    }
+
+    private static String key(String hashSum, long size) {
+        return hashSum + "-" + size;
+    }
+
+    // count of files indexed from another file's extracted text
+    synchronized void addReused() { reused++; }
+    synchronized int getReused() { return reused; }
+}
@@ -0,0 +1,62 @@
+/* Copyright 2016 Evan A. Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.alvanson.xltsearch;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+
+// main class of forked parser JVMs: runs the Tika fork server from the jar passed as
+// `-jar <file>` (as ForkParser would with a plain java command), but halts the JVM as soon
+// as the parent creates the file named by KILL_FILE_PROPERTY, even if a parse is stuck
+// (deleting the file first: the parent deletes it only if the JVM has already exited)
+class ForkLauncher {
+    static final String KILL_FILE_PROPERTY = "xltsearch.fork.kill";
+    static final long POLL_INTERVAL = 250;  // ms
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2 || !args[0].equals("-jar")) {
+            throw new IllegalArgumentException("Usage: ForkLauncher -jar <file>");
+        }
+        File killFile = new File(System.getProperty(KILL_FILE_PROPERTY));
+        Thread watchdog = new Thread(() -> {
+            try {
+                while (!killFile.exists()) {
+                    Thread.sleep(POLL_INTERVAL);
+                }
+                killFile.delete();
+                Runtime.getRuntime().halt(1);
+            } catch (InterruptedException ex) {
+                // exit with fork server
+            }
+        });
+        watchdog.setDaemon(true);
+        watchdog.start();
+        // as `java -jar`: only the classes in the jar, which ForkParser built for the child
+        File jar = new File(args[1]);
+        String mainClass;
+        try (JarFile jarFile = new JarFile(jar)) {
+            mainClass = jarFile.getManifest().getMainAttributes().getValue(
+                Attributes.Name.MAIN_CLASS);
+        }
+        ClassLoader loader = new URLClassLoader(new URL[] { jar.toURI().toURL() }, null);
+        Thread.currentThread().setContextClassLoader(loader);
+        Method main = loader.loadClass(mainClass).getMethod("main", String[].class);
+        main.invoke(null, (Object) new String[0]);
+    }
+}
@@ -0,0 +1,374 @@
+/* Copyright 2016 Evan A. Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.alvanson.xltsearch;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import javax.xml.bind.DatatypeConverter;
+
+// memory-compact map of relative path -> (hashsum, size, last modified) for SelectTask:
+// directories are shared between entries, file names are packed as UTF-8 and hashsums
+// as raw bytes into primitive arrays; entries can only be added, then removed (by path, or
+// by hashsum and size); removed entries may be marked unchanged, to be found by hashsum
+class HashSumMap {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // file state as recorded in the index
+    static class Entry {
+        final String hashSum;
+        final long size;
+        final long lastModified;
+
+        Entry(String hashSum, long size, long lastModified) {
+            this.hashSum = hashSum;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final int digestLength;
+
+    // directories (with trailing separator) shared between entries
+    private final Map<String,Integer> dirIds = new HashMap<>();
+    private final List<String> dirs = new ArrayList<>();
+
+    // per-entry columns
+    private int count = 0;
+    private int live = 0;
+    private int[] dirId = new int[INITIAL_CAPACITY];
+    private int[] nameStart = new int[INITIAL_CAPACITY + 1];
+    private int[] pathHash = new int[INITIAL_CAPACITY];
+    private long[] sizes = new long[INITIAL_CAPACITY];
+    private long[] lastModifieds = new long[INITIAL_CAPACITY];
+    private byte[] digests;
+    private final BitSet noDigest = new BitSet();   // hashsum empty or of unexpected length
+    private final BitSet removed = new BitSet();
+    private final BitSet unchanged = new BitSet();  // removed, and file found unchanged
+    private byte[] names = new byte[INITIAL_CAPACITY * 16];
+
+    // open-addressing hash table of entry + 1 (0 == empty slot)
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+    // as above, by hashsum: built on first lookup by hashsum
+    private int[] digestTable = null;
+    // distinct sizes of entries with a hashsum and of sizes added by addSize(), + 1 (0 ==
+    // empty slot): built on first addSize()
+    private long[] sizeTable = null;
+    private int sizeCount = 0;
+
+    HashSumMap(int digestLength) {
+        this.digestLength = digestLength;
+        this.digests = new byte[INITIAL_CAPACITY * digestLength];
+    }
+
+    void put(String relPath, String hashSum, long size, long lastModified) {
+        byte[] digest;
+        try {
+            digest = DatatypeConverter.parseHexBinary(hashSum);
+        } catch (IllegalArgumentException ex) {
+            digest = new byte[0];
+        }
+        put(relPath, digest, digest.length, size, lastModified);
+    }
+
+    // caller must not add the same path twice
+    void put(String relPath, byte[] digest, int length, long size, long lastModified) {
+        ensureCapacity(count + 1);
+        // split path into (shared) directory and name
+        int split = relPath.lastIndexOf(File.separatorChar) + 1;
+        String dir = relPath.substring(0, split);
+        Integer id = dirIds.get(dir);
+        if (id == null) {
+            id = dirs.size();
+            dirIds.put(dir, id);
+            dirs.add(dir);
+        }
+        byte[] name = relPath.substring(split).getBytes(StandardCharsets.UTF_8);
+        if (nameStart[count] + name.length > names.length) {
+            names = Arrays.copyOf(names, Math.max(names.length * 2, nameStart[count] + name.length));
+        }
+        System.arraycopy(name, 0, names, nameStart[count], name.length);
+        nameStart[count+1] = nameStart[count] + name.length;
+        dirId[count] = id;
+        pathHash[count] = relPath.hashCode();
+        sizes[count] = size;
+        lastModifieds[count] = lastModified;
+        if (length == digestLength) {
+            System.arraycopy(digest, 0, digests, count * digestLength, digestLength);
+        } else {
+            noDigest.set(count);
+        }
+        insert(count);
+        count++;
+        live++;
+        // lookup table by hashsum: rebuilt on next lookup
+        digestTable = null;
+        if (sizeTable != null && length == digestLength) {
+            insertSize(size);
+        }
+    }
+
+    boolean contains(String relPath) {
+        return find(relPath, true) >= 0;
+    }
+
+    // remove entry for `relPath` and return it (null if not present)
+    Entry remove(String relPath) {
+        int i = find(relPath, true);
+        if (i < 0) {
+            return null;
+        }
+        markRemoved(i);
+        String hashSum = "";
+        if (!noDigest.get(i)) {
+            hashSum = DatatypeConverter.printHexBinary(
+                Arrays.copyOfRange(digests, i * digestLength, (i+1) * digestLength));
+        }
+        return new Entry(hashSum, sizes[i], lastModifieds[i]);
+    }
+
+    // true if an entry not (yet) removed has hashsum `hashSum` and size `size`
+    boolean containsHashSum(String hashSum, long size) {
+        return findDigest(hashSum, size, true) >= 0;
+    }
+
+    // remove an entry with hashsum `hashSum` and size `size` and return its path (null if none)
+    String removeHashSum(String hashSum, long size) {
+        int i = findDigest(hashSum, size, true);
+        if (i < 0) {
+            return null;
+        }
+        markRemoved(i);
+        return getPath(i);
+    }
+
+    // mark the (removed) entry for `relPath` as unchanged: its file is still at that path
+    void markUnchanged(String relPath) {
+        int i = find(relPath, false);
+        if (i >= 0 && removed.get(i)) {
+            unchanged.set(i);
+        }
+    }
+
+    // path of an entry marked unchanged with hashsum `hashSum` and size `size` (null if none)
+    String findUnchanged(String hashSum, long size) {
+        int i = findDigest(hashSum, size, false);
+        return i < 0 ? null : getPath(i);
+    }
+
+    // add `size` (of a file seen in this update): true if an entry with a hashsum (removed or
+    // not), or a size added before, is the same, i.e. a file of that size may have the same
+    // content as another
+    boolean addSize(long size) {
+        if (sizeTable == null) {
+            sizeTable = new long[Integer.highestOneBit(Math.max(count, 1)) * 4];
+            for (int i = 0; i < count; i++) {
+                if (!noDigest.get(i)) {
+                    insertSize(sizes[i]);
+                }
+            }
+        }
+        return !insertSize(size);
+    }
+
+    int size() {
+        return live;
+    }
+
+    // paths of entries not (yet) removed
+    Iterable<String> remaining() {
+        return () -> new Iterator<String>() {
+            private int next = removed.nextClearBit(0);
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public String next() {
+                if (next >= count) {
+                    throw new NoSuchElementException();
+                }
+                String relPath = getPath(next);
+                next = removed.nextClearBit(next + 1);
+                return relPath;
+            }
+        };
+    }
+
+    // approximate heap used by this map
+    long estimateBytes() {
+        long bytes = 4L * (dirId.length + nameStart.length + pathHash.length + table.length) +
+            8L * (sizes.length + lastModifieds.length) + digests.length + names.length +
+            (noDigest.size() + removed.size() + unchanged.size()) / 8 +
+            (sizeTable == null ? 0 : 8L * sizeTable.length);
+        for (String dir : dirs) {
+            bytes += 64 + 2 * dir.length();     // String and map entry overhead
+        }
+        return bytes;
+    }
+
+    private String getPath(int i) {
+        return dirs.get(dirId[i]) + new String(names, nameStart[i],
+            nameStart[i+1] - nameStart[i], StandardCharsets.UTF_8);
+    }
+
+    // index of entry for `relPath` (if `live`, only if not removed), or -1
+    private int find(String relPath, boolean live) {
+        int hash = relPath.hashCode();
+        int mask = table.length - 1;
+        for (int slot = mix(hash) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int i = table[slot] - 1;
+            if (pathHash[i] == hash && !(live && removed.get(i)) &&
+                    getPath(i).equals(relPath)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // index of entry (if `live`, not removed, else marked unchanged) with hashsum `hashSum`
+    // and size `size`, or -1
+    private int findDigest(String hashSum, long size, boolean live) {
+        byte[] digest;
+        try {
+            digest = DatatypeConverter.parseHexBinary(hashSum);
+        } catch (IllegalArgumentException ex) {
+            return -1;
+        }
+        if (digest.length != digestLength) {
+            return -1;
+        }
+        if (digestTable == null) {
+            digestTable = new int[table.length];
+            for (int i = 0; i < count; i++) {
+                if (!noDigest.get(i)) {
+                    insertDigest(i);
+                }
+            }
+        }
+        int mask = digestTable.length - 1;
+        for (int slot = digestHash(digest, 0) & mask; digestTable[slot] != 0;
+                slot = (slot + 1) & mask) {
+            int i = digestTable[slot] - 1;
+            if ((live ? !removed.get(i) : unchanged.get(i)) && sizes[i] == size &&
+                    digestEquals(i, digest)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void insertDigest(int i) {
+        int mask = digestTable.length - 1;
+        int slot = digestHash(digests, i * digestLength) & mask;
+        while (digestTable[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        digestTable[slot] = i + 1;
+    }
+
+    private int digestHash(byte[] bytes, int offset) {
+        int hash = 1;
+        for (int j = 0; j < digestLength; j++) {
+            hash = 31 * hash + bytes[offset + j];
+        }
+        return mix(hash);
+    }
+
+    private boolean digestEquals(int i, byte[] digest) {
+        int offset = i * digestLength;
+        for (int j = 0; j < digestLength; j++) {
+            if (digests[offset + j] != digest[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // add `size` to the size table: false if already present
+    private boolean insertSize(long size) {
+        int mask = sizeTable.length - 1;
+        int slot = mix(Long.hashCode(size)) & mask;
+        while (sizeTable[slot] != 0) {
+            if (sizeTable[slot] == size + 1) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        sizeTable[slot] = size + 1;
+        sizeCount++;
+        if (sizeCount * 2 > sizeTable.length) {    // rehash (load factor <= 0.5)
+            long[] old = sizeTable;
+            sizeTable = new long[old.length * 2];
+            mask = sizeTable.length - 1;
+            for (long key : old) {
+                if (key != 0) {
+                    slot = mix(Long.hashCode(key - 1)) & mask;
+                    while (sizeTable[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    sizeTable[slot] = key;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void markRemoved(int i) {
+        removed.set(i);
+        live--;
+    }
+
+    private void insert(int i) {
+        int mask = table.length - 1;
+        int slot = mix(pathHash[i]) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = i + 1;
+    }
+
+    private void ensureCapacity(int n) {
+        if (n <= dirId.length) {
+            return;
+        }
+        int capacity = dirId.length * 2;
+        dirId = Arrays.copyOf(dirId, capacity);
+        nameStart = Arrays.copyOf(nameStart, capacity + 1);
+        pathHash = Arrays.copyOf(pathHash, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+        lastModifieds = Arrays.copyOf(lastModifieds, capacity);
+        digests = Arrays.copyOf(digests, capacity * digestLength);
+        // rehash (load factor <= 0.5)
+        table = new int[capacity * 2];
+        for (int i = 0; i < count; i++) {
+            insert(i);
+        }
+    }
+
+    // spread String.hashCode bits (as in java.util.HashMap)
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,241 @@
+/* Copyright 2016 Evan A. Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.alvanson.xltsearch;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Checksum;
+
+// streaming hash function used to detect changes to files (not thread-safe)
+interface Hasher {
+    void reset();
+    void update(byte[] bytes, int offset, int length);
+    // returns hash of all bytes since last digest() and resets
+    byte[] digest();
+    int getDigestLength();
+
+    // cryptographic digest from the platform's security providers
+    static class Digest implements Hasher {
+        private final MessageDigest digest;
+
+        Digest(String algorithm) {
+            try {
+                digest = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException ex) {
+                // MD5, SHA-1 and SHA-256 are required on every Java platform
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        @Override
+        public void reset() {
+            digest.reset();
+        }
+
+        @Override
+        public void update(byte[] bytes, int offset, int length) {
+            digest.update(bytes, offset, length);
+        }
+
+        @Override
+        public byte[] digest() {
+            return digest.digest();
+        }
+
+        @Override
+        public int getDigestLength() {
+            return digest.getDigestLength();
+        }
+    }
+
+    // CRC-32C (Castagnoli), hardware-accelerated on Java 9 and later
+    static class Crc32c implements Hasher {
+        private static final String CLASS_NAME = "java.util.zip.CRC32C";
+        private final Checksum checksum;
+
+        Crc32c() {
+            try {
+                checksum = (Checksum) Class.forName(CLASS_NAME).getConstructor().newInstance();
+            } catch (ReflectiveOperationException ex) {
+                throw new IllegalStateException(ex);    // check isAvailable() first
+            }
+        }
+
+        static boolean isAvailable() {
+            try {
+                Class.forName(CLASS_NAME);
+                return true;
+            } catch (ClassNotFoundException ex) {
+                return false;
+            }
+        }
+
+        @Override
+        public void reset() {
+            checksum.reset();
+        }
+
+        @Override
+        public void update(byte[] bytes, int offset, int length) {
+            checksum.update(bytes, offset, length);
+        }
+
+        @Override
+        public byte[] digest() {
+            long value = checksum.getValue();
+            checksum.reset();
+            return new byte[] {
+                (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value
+            };
+        }
+
+        @Override
+        public int getDigestLength() {
+            return 4;
+        }
+    }
+
+    // xxHash64 (seed 0), see https://github.com/Cyan4973/xxHash
+    static class XXHash64 implements Hasher {
+        private static final long PRIME1 = 0x9E3779B185EBCA87L;
+        private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+        private static final long PRIME3 = 0x165667B19E3779F9L;
+        private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+        private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+        private final byte[] buffer = new byte[32];
+        private int buffered;
+        private long total;
+        private long v1, v2, v3, v4;
+
+        XXHash64() {
+            reset();
+        }
+
+        @Override
+        public void reset() {
+            buffered = 0;
+            total = 0;
+            v1 = PRIME1 + PRIME2;
+            v2 = PRIME2;
+            v3 = 0;
+            v4 = -PRIME1;
+        }
+
+        @Override
+        public void update(byte[] bytes, int offset, int length) {
+            total += length;
+            // complete partially filled stripe
+            if (buffered > 0) {
+                int n = Math.min(32 - buffered, length);
+                System.arraycopy(bytes, offset, buffer, buffered, n);
+                buffered += n;
+                offset += n;
+                length -= n;
+                if (buffered < 32) {
+                    return;
+                }
+                stripe(buffer, 0);
+                buffered = 0;
+            }
+            // whole stripes
+            int end = offset + length;
+            for (; offset + 32 <= end; offset += 32) {
+                stripe(bytes, offset);
+            }
+            // keep remainder for next update or digest
+            buffered = end - offset;
+            System.arraycopy(bytes, offset, buffer, 0, buffered);
+        }
+
+        private void stripe(byte[] b, int i) {
+            v1 = round(v1, getLong(b, i));
+            v2 = round(v2, getLong(b, i + 8));
+            v3 = round(v3, getLong(b, i + 16));
+            v4 = round(v4, getLong(b, i + 24));
+        }
+
+        @Override
+        public byte[] digest() {
+            long h;
+            if (total >= 32) {
+                h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) +
+                    Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                h = merge(h, v1);
+                h = merge(h, v2);
+                h = merge(h, v3);
+                h = merge(h, v4);
+            } else {
+                h = PRIME5;
+            }
+            h += total;
+            int i = 0;
+            for (; i + 8 <= buffered; i += 8) {
+                h ^= round(0, getLong(buffer, i));
+                h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+            }
+            if (i + 4 <= buffered) {
+                h ^= (getInt(buffer, i) & 0xFFFFFFFFL) * PRIME1;
+                h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+                i += 4;
+            }
+            for (; i < buffered; i++) {
+                h ^= (buffer[i] & 0xFFL) * PRIME5;
+                h = Long.rotateLeft(h, 11) * PRIME1;
+            }
+            // avalanche
+            h ^= h >>> 33;
+            h *= PRIME2;
+            h ^= h >>> 29;
+            h *= PRIME3;
+            h ^= h >>> 32;
+            reset();
+            byte[] bytes = new byte[8];
+            for (int j = 7; j >= 0; j--) {
+                bytes[j] = (byte) h;
+                h >>>= 8;
+            }
+            return bytes;
+        }
+
+        @Override
+        public int getDigestLength() {
+            return 8;
+        }
+
+        private static long round(long acc, long input) {
+            acc += input * PRIME2;
+            acc = Long.rotateLeft(acc, 31);
+            return acc * PRIME1;
+        }
+
+        private static long merge(long acc, long v) {
+            acc ^= round(0, v);
+            return acc * PRIME1 + PRIME4;
+        }
+
+        // little-endian reads
+        private static long getLong(byte[] b, int i) {
+            return (b[i] & 0xFFL) | (b[i+1] & 0xFFL) << 8 | (b[i+2] & 0xFFL) << 16 |
+                (b[i+3] & 0xFFL) << 24 | (b[i+4] & 0xFFL) << 32 | (b[i+5] & 0xFFL) << 40 |
+                (b[i+6] & 0xFFL) << 48 | (b[i+7] & 0xFFL) << 56;
+        }
+
+        private static int getInt(byte[] b, int i) {
+            return (b[i] & 0xFF) | (b[i+1] & 0xFF) << 8 | (b[i+2] & 0xFF) << 16 |
+                (b[i+3] & 0xFF) << 24;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/* Copyright 2016 Evan A. Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.alvanson.xltsearch;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.xml.bind.DatatypeConverter;
+
+// passes every byte read from the underlying stream through `hasher`, exactly once
+class HashingInputStream extends FilterInputStream {
+    private final Hasher hasher;
+    private final byte[] single = new byte[1];
+
+    HashingInputStream(InputStream in, Hasher hasher) {
+        super(in);
+        this.hasher = hasher;
+        hasher.reset();
+    }
+
+    @Override
+    public int read() throws IOException {
+        int n = read(single, 0, 1);
+        return n == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n > 0) {
+            hasher.update(b, off, n);
+        }
+        return n;
+    }
+
+    // skipped bytes must still be hashed
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        int bytesRead;
+        while (skipped < n &&
+                (bytesRead = read(buffer, 0, (int) Math.min(n - skipped, buffer.length))) != -1) {
+            skipped += bytesRead;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readlimit) {}
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    // read remainder of stream (if any) and return hashsum of the entire stream
+    String finish() throws IOException {
+        byte[] buffer = new byte[8192];
+        while (read(buffer, 0, buffer.length) != -1) {
+            // hashed by read()
+        }
+        return DatatypeConverter.printHexBinary(hasher.digest());
+    }
+}
@@ -0,0 +1,371 @@
+/* Copyright 2016 Evan A. Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.alvanson.xltsearch;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// IndexWriter shared by the IndexTasks of one update: opened by the first task to need it,
+// closed (committing the index and finishing the manifest) by the last task to finish;
+// also provides near-real-time searchers of the index being written, refreshed (at most
+// every search.refresh seconds) only when a search needs one; moved (and copied) files are
+// relocated in the index when the session is checkpointed or closed
+class IndexSession {
+    private static final double BULK_RAM_BUFFER = 512.0;    // MB, at most 1/4 of heap
+    // each refresh flushes a segment, and merges are deferred in bulk
+    private static final int BULK_MIN_REFRESH = 60;     // seconds
+
+    private final Config config;
+    private final Manifest manifest;
+    private final AtomicInteger workers;    // IndexTasks not yet finished
+    private final AtomicLong uncommitted = new AtomicLong(); // dockets since last checkpoint
+    private volatile long nextCheckpoint;   // System.nanoTime()
+    private IndexWriter iwriter = null;
+    private volatile SearcherManager searcherManager = null;
+    private long refreshInterval;           // nanoseconds
+    private volatile long nextRefresh;      // System.nanoTime()
+    private boolean bulk = false;
+    private volatile boolean failed = false;
+    private final List<Docket> relocations = new ArrayList<>();     // not yet applied
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
+
+    private final Logger logger = LoggerFactory.getLogger(IndexSession.class);
+
+    IndexSession(Config config, Manifest manifest, int workers) {
+        this.config = config;
+        this.manifest = manifest;
+        this.workers = new AtomicInteger(workers);
+        this.nextCheckpoint = System.nanoTime() + config.getCheckpointInterval() * 1000000000L;
+    }
+
+    synchronized IndexWriter open() throws IOException {
+        if (iwriter == null) {
+            // new (or deleted) index: no document can be replaced, so build in bulk
+            bulk = !DirectoryReader.indexExists(config.getDirectory());
+            if (bulk) {
+                logger.info("Index not found: building new index in bulk");
+            }
+            iwriter = newIndexWriter(bulk);
+            if (config.getSearchRefresh() > 0) {
+                openSearcherManager(bulk ?
+                    Math.max(config.getSearchRefresh(), BULK_MIN_REFRESH) :
+                    config.getSearchRefresh());
+            }
+        }
+        return iwriter;
+    }
+
+    private void openSearcherManager(int refresh) throws IOException {
+        refreshInterval = refresh * 1000000000L;
+        nextRefresh = System.nanoTime();
+        searcherManager = new SearcherManager(iwriter, true, new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(IndexReader reader) {
+                IndexSearcher isearcher = new IndexSearcher(reader);
+                isearcher.setSimilarity(config.getSimilarity());
+                return isearcher;
+            }
+        });
+    }
+
+    // searcher including documents indexed so far, or null if none available (not yet opened,
+    // closed or disabled): must be returned with releaseSearcher()
+    IndexSearcher acquireSearcher() throws IOException {
+        SearcherManager manager = searcherManager;
+        if (manager == null) {
+            return null;
+        }
+        try {
+            // each refresh flushes a segment: refresh only if due, and only for a search
+            long now = System.nanoTime();
+            if (now - nextRefresh >= 0) {
+                nextRefresh = now + refreshInterval;
+                try {
+                    manager.maybeRefresh();     // returns at once if another thread refreshing
+                } catch (IOException ex) {
+                    logger.warn("I/O exception while refreshing searcher", ex);
+                }
+            }
+            return manager.acquire();
+        } catch (AlreadyClosedException ex) {
+            return null;
+        }
+    }
+
+    void releaseSearcher(IndexSearcher isearcher) throws IOException {
+        searcherManager.release(isearcher);     // valid after close
+    }
+
+    // true if open() found no index: documents may be added without deleting old versions
+    synchronized boolean isBulk() {
+        return bulk;
+    }
+
+    private IndexWriter newIndexWriter(boolean bulk) throws IOException {
+        IndexWriter iwriter = new IndexWriter(config.getDirectory(), newIndexWriterConfig(bulk));
+        // tie the next commit to the manifest written during this update
+        iwriter.setCommitData(manifest.getCommitData());
+        return iwriter;
+    }
+
+    // called by IndexTasks once a docket has been indexed: commits if a checkpoint is due
+    void indexed() throws IOException {
+        long count = uncommitted.incrementAndGet();
+        if ((config.getCheckpointDocs() > 0 && count >= config.getCheckpointDocs()) ||
+                (config.getCheckpointInterval() > 0 && System.nanoTime() >= nextCheckpoint)) {
+            synchronized (this) {
+                if (uncommitted.get() < count) {
+                    return;     // another task just committed
+                }
+                checkpoint();
+            }
+        }
+    }
+
+    // called by IndexTasks for a RELOCATE or COPY docket: the document is moved (or copied)
+    // with the next checkpoint (or when the session is closed), all at once, as each segment
+    // holding a moved document must be read in full to copy it
+    synchronized void relocate(Docket docket) {
+        relocations.add(docket);
+    }
+
+    // copy documents of moved and copied files to their new paths (see RelocatingReader), and
+    // delete those of moved files at their old paths
+    private void applyRelocations() throws IOException {
+        if (relocations.isEmpty()) {
+            return;
+        }
+        DirectoryReader ireader = DirectoryReader.open(iwriter, true);
+        try {
+            // by leaf ord: a reader holds each document once, so a document copied n times
+            // needs n readers of its leaf
+            Map<Integer,List<RelocatingReader>> readers = new HashMap<>();
+            List<RelocatingReader> all = new ArrayList<>();
+            int moved = 0;
+            int copied = 0;
+            for (Docket docket : relocations) {
+                for (AtomicReaderContext leaf : ireader.leaves()) {
+                    DocsEnum docsEnum = leaf.reader().termDocsEnum(
+                        new Term(config.pathField, docket.oldPath));
+                    int doc = docsEnum == null ? DocsEnum.NO_MORE_DOCS : docsEnum.nextDoc();
+                    if (doc != DocsEnum.NO_MORE_DOCS) {
+                        List<RelocatingReader> leafReaders = readers.get(leaf.ord);
+                        if (leafReaders == null) {
+                            leafReaders = new ArrayList<>();
+                            readers.put(leaf.ord, leafReaders);
+                        }
+                        RelocatingReader reader = null;
+                        for (RelocatingReader leafReader : leafReaders) {
+                            if (!leafReader.contains(doc)) {
+                                reader = leafReader;
+                                break;
+                            }
+                        }
+                        if (reader == null) {
+                            reader = new RelocatingReader(leaf.reader(),
+                                config.pathField, config.modifiedField);
+                            leafReaders.add(reader);
+                            all.add(reader);
+                        }
+                        reader.relocate(doc, docket.relPath, docket.lastModified);
+                        if (docket.status == Docket.Status.COPY) {
+                            copied++;
+                        } else {
+                            moved++;
+                        }
+                        break;
+                    }
+                }   // else: not indexed (e.g. skipped by parse filter): nor is the new path
+                // delete any older version of the file at new path, and old path if moved
+                iwriter.deleteDocuments(new Term(config.pathField, docket.relPath));
+                if (docket.status != Docket.Status.COPY) {
+                    iwriter.deleteDocuments(new Term(config.pathField, docket.oldPath));
+                }
+            }
+            // deletes above are applied before the copies are added
+            if (!all.isEmpty()) {
+                iwriter.addIndexes(all.toArray(new RelocatingReader[all.size()]));
+            }
+            logger.info("Relocated {} moved and {} copied files in index", moved, copied);
+        } finally {
+            ireader.close();
+        }
+        for (Docket docket : relocations) {
+            manifest.add(docket.relPath, docket.hashSum, docket.size, docket.lastModified);
+        }
+        relocations.clear();
+    }
+
+    // commit index with commit data allowing an interrupted update to resume from here
+    private synchronized void checkpoint() throws IOException {
+        applyRelocations();     // before the manifest records them
+        uncommitted.set(0);
+        nextCheckpoint = System.nanoTime() + config.getCheckpointInterval() * 1000000000L;
+        Map<String,String> commitData = manifest.checkpoint();
+        if (commitData == null) {
+            return;     // manifest failed: nothing to resume from
+        }
+        iwriter.setCommitData(commitData);
+        iwriter.commit();
+        config.setLastCheckpoint(System.currentTimeMillis());
+    }
+
+    private IndexWriterConfig newIndexWriterConfig(boolean bulk) {
+        IndexWriterConfig iwconfig = new IndexWriterConfig(
+            config.getVersion(), config.getAnalyzer());
+        iwconfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        iwconfig.setSimilarity(config.getSimilarity());
+        // flush by RAM use, or by document count (whichever comes first)
+        if (bulk) {     // fewer, larger segments
+            double heap = Runtime.getRuntime().maxMemory() / 4.0 / (1 << 20);
+            iwconfig.setRAMBufferSizeMB(Math.max(config.getRamBufferSize(),
+                Math.min(BULK_RAM_BUFFER, heap)));
+        } else {
+            iwconfig.setRAMBufferSizeMB(config.getRamBufferSize());
+        }
+        iwconfig.setMaxBufferedDocs(config.getMaxBufferedDocs());
+        // compound files for flushed segments, and merged segments up to ratio of index
+        iwconfig.setUseCompoundFile(config.getCompoundRatio() > 0);
+        if (bulk) {     // merge once, when build is complete
+            iwconfig.setMergePolicy(NoMergePolicy.NO_COMPOUND_FILES);
+            return iwconfig;
+        }
+        TieredMergePolicy mergePolicy = new TieredMergePolicy();
+        mergePolicy.setSegmentsPerTier(config.getMergeFactor());
+        mergePolicy.setMaxMergeAtOnce(config.getMergeFactor());
+        mergePolicy.setMaxMergedSegmentMB(config.getMaxMergedSegment());
+        mergePolicy.setNoCFSRatio(config.getCompoundRatio());
+        iwconfig.setMergePolicy(mergePolicy);
+        if (config.getMergeThreads() > 0) {
+            ConcurrentMergeScheduler mergeScheduler = new ConcurrentMergeScheduler();
+            // allow a few merges to queue before indexing threads are stalled
+            mergeScheduler.setMaxMergesAndThreads(
+                config.getMergeThreads() + 2, config.getMergeThreads());
+            iwconfig.setMergeScheduler(mergeScheduler);
+        }
+        return iwconfig;
+    }
+
+    // run `action` once the last IndexTask has released the session (and write.lock):
+    // on the thread closing the session, or at once if already closed
+    void whenClosed(Runnable action) {
+        closed.thenRun(action);
+    }
+
+    void awaitClosed() throws InterruptedException {
+        try {
+            closed.get();
+        } catch (ExecutionException ex) {
+            // never completed exceptionally
+        }
+    }
+
+    boolean isClosed() {
+        return closed.isDone();
+    }
+
+    // called by SelectTask or a ParseTask that did not complete, before it ends its queue:
+    // the index tasks may still succeed, but the update is incomplete
+    void fail() {
+        failed = true;
+    }
+
+    // called once by every IndexTask when it finishes, with its result:
+    // returns false if this was the last task and the index could not be closed
+    boolean release(boolean succeeded) {
+        if (!succeeded) {
+            failed = true;
+        }
+        if (workers.decrementAndGet() > 0) {
+            return true;
+        }
+        try {
+            return close();
+        } finally {
+            closed.complete(null);
+        }
+    }
+
+    private synchronized boolean close() {
+        if (iwriter == null) {
+            return true;
+        }
+        if (searcherManager != null) {
+            try {
+                searcherManager.close();    // searchers in use remain valid
+            } catch (IOException ex) {
+                logger.warn("I/O exception while closing searcher", ex);
+            }
+        }
+        try {
+            if (failed) {   // e.g. cancelled: keep what has been indexed so far
+                checkpoint();
+                iwriter.close(false);   // abort running merges: redone by next update
+            } else {
+                applyRelocations();
+                iwriter.setCommitData(manifest.getCommitData());
+                iwriter.close();
+            }
+            iwriter = null;
+            if (bulk && !failed) {
+                // merges deferred during build: reopen with merge policy, merge once
+                logger.info("Merging new index");
+                iwriter = newIndexWriter(false);
+                iwriter.maybeMerge();
+                iwriter.close();    // waits for merges
+                iwriter = null;
+            }   // else: incomplete index, merged during next update
+            manifest.close();   // to be committed by Catalog if update succeeded
+            return true;
+        } catch (IOException | RuntimeException ex) {
+            // e.g. AlreadyClosedException: rollback below still releases write.lock
+            logger.warn("Exception while closing index writer", ex);
+            return false;
+        } finally {
+            if (iwriter != null) {
+                try {
+                    iwriter.rollback();
+                } catch (IOException | RuntimeException ex) {
+                    // ignore: already failed
+                }
+                iwriter = null;
+            }
+        }
+    }
+}
@@ -16,87 +16,93 @@ package com.github.alvanson.xltsearch;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
 import org.apache.tika.metadata.Property;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javafx.concurrent.Task;
 
 class IndexTask extends Task<Boolean> {
     private final Config config;
-    private final BlockingQueue<Docket> inQueue;
+    private final DocketQueue inQueue;
+    private final IndexSession session;
+    private final Manifest manifest;
+    private final Progress progress;
+    private boolean bulk = false;   // new index: add documents without deleting
+    private final AtomicBoolean started = new AtomicBoolean(false);
 
     private final Logger logger = LoggerFactory.getLogger(IndexTask.class);
 
-    IndexTask(Config config, BlockingQueue<Docket> inQueue) {
+    IndexTask(Config config, DocketQueue inQueue, IndexSession session, Manifest manifest,
+            Progress progress) {
         this.config = config;
         this.inQueue = inQueue;
+        this.session = session;
+        this.manifest = manifest;
+        this.progress = progress;
+    }
+
+    // release session on behalf of this task if it was cancelled before it started
+    void abandon() {
+        if (started.compareAndSet(false, true)) {
+            session.release(false);
+        }
     }
 
     @Override
     protected Boolean call() {
-        IndexWriter iwriter = null;
         boolean result = false;
 
+        if (!started.compareAndSet(false, true)) {
+            return result;  // abandoned
+        }
         updateMessage("started");
         try {
-            int count = 0;
-            Docket docket;
+            // IndexWriter is thread-safe: shared by all IndexTasks
+            IndexWriter iwriter = session.open();
+            bulk = session.isBulk();
 
-            IndexWriterConfig iwconfig = new IndexWriterConfig(
-                config.getVersion(), config.getAnalyzer());
-            iwconfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
-            iwconfig.setSimilarity(config.getSimilarity());
-            iwriter = new IndexWriter(config.getDirectory(), iwconfig);
-
-            while ((docket = inQueue.take()) != Docket.DONE) {
-                count++;
-                updateMessage(docket.relPath);
-                switch (docket.status) {
-                    case PARSED:
-                        // index parsed file
-                        Document doc = new Document();
-                        // store relative path  ** must be indexed for updateDocument
-                        doc.add(new StringField(config.pathField,
-                            docket.relPath, Field.Store.YES));
-                        // index content
-                        doc.add(new TextField(config.contentField,
-                            docket.content.toString(), Field.Store.NO));
-                        // index standard metadata
-                        for (Map.Entry<String,Property> e : config.metadataFields.entrySet()) {
-                            for (String value : docket.metadata.getValues(e.getValue())) {
-                                doc.add(new TextField(e.getKey(), value, Field.Store.YES));
-                            }
+            List<Docket> batch = new ArrayList<>();
+            boolean done = false;
+            while (!done) {
+                batch.clear();
+                long taken = inQueue.takeBatch(batch, DocketBatcher.DEFAULT_SIZE);
+                Docket last = null;     // last indexed (not DONE)
+                try {
+                    for (Docket docket : batch) {
+                        if (docket == Docket.DONE) {
+                            done = true;
+                            break;
                         }
-                        // store hashsum
-                        doc.add(new StringField(config.hashSumField,
-                            docket.hashSum, Field.Store.YES));
-                        // add/update document
-                        iwriter.updateDocument(new Term(config.pathField, docket.relPath), doc);
-                        // fall through
-                    case PASS:
-                        break;
-                    case DELETE:
-                        iwriter.deleteDocuments(new Term(config.pathField, docket.relPath));
-                        break;
-                    default:
-                        logger.error("Unexpected docket state while processing {}: {}",
-                            docket.relPath, docket.status.toString());
-                        cancel(true);   // cancel task
+                        index(iwriter, docket);
+                        progress.addDone();
+                        session.indexed();
+                        last = docket;
+                    }
+                } finally {
+                    inQueue.release(taken);     // content of the batch now indexed
+                }
+                // once per batch
+                if (last != null) {
+                    updateMessage(last.relPath);
                 }
-                updateProgress(count, count + docket.workLeft);
+                updateProgress(progress.getDone(), progress.getTotal());
             }
             // end of queue
+            inQueue.put(Docket.DONE);   // for remaining workers
             updateMessage("complete");
-            updateProgress(count, count + docket.workLeft);
+            updateProgress(progress.getDone(), progress.getTotal());
             result = true;
         } catch (IOException ex) {
             updateMessage("I/O exception");
@@ -108,15 +114,83 @@ class IndexTask extends Task<Boolean> {
                 updateMessage("interrupted");
                 logger.error("Interrupted", ex);
             }
-        }
-        // close iwriter
-        if (iwriter != null) {
-            try {
-                iwriter.close();
-            } catch (IOException ex) {
-                logger.warn("I/O exception while closing index writer", ex);
+        } finally {
+            // last task out closes iwriter
+            if (!session.release(result)) {
+                result = false;
             }
         }
         return result;
     }
+
+    private void index(IndexWriter iwriter, Docket docket) throws IOException {
+        switch (docket.status) {
+            case PARSED:
+                // index parsed file
+                Document doc = new Document();
+                // store relative path  ** must be indexed for updateDocument
+                doc.add(new StringField(config.pathField,
+                    docket.relPath, Field.Store.YES));
+                // index content (streamed from buffer or spill file)
+                Reader content = docket.content.getReader();
+                doc.add(new TextField(config.contentField, content));
+                // index standard metadata
+                for (Map.Entry<String,Property> e : config.metadataFields.entrySet()) {
+                    for (String value : docket.metadata.getValues(e.getValue())) {
+                        doc.add(new TextField(e.getKey(), value, Field.Store.YES));
+                    }
+                }
+                // store hashsum, size and last modified time for change detection: unknown
+                // if indexed without content, so that file is reselected (as for FAILED)
+                String hashSum = docket.incomplete ? "" : docket.hashSum;
+                long size = docket.incomplete ? -1 : docket.size;
+                long lastModified = docket.incomplete ? -1 : docket.lastModified;
+                doc.add(new StringField(config.hashSumField, hashSum, Field.Store.YES));
+                doc.add(new StoredField(config.sizeField, size));
+                doc.add(new StoredField(config.modifiedField, lastModified));
+                // add/update document
+                try {
+                    if (bulk) {     // no previous version to replace
+                        iwriter.addDocument(doc);
+                    } else {
+                        iwriter.updateDocument(
+                            new Term(config.pathField, docket.relPath), doc);
+                    }
+                } finally {
+                    content.close();
+                    docket.content.release();
+                }
+                manifest.add(docket.relPath, hashSum, size, lastModified);
+                break;
+            case RELOCATE:
+            case COPY:
+                // document moved or copied from old path by the session (added to manifest then)
+                session.relocate(docket);
+                break;
+            case FAILED:
+                // keep path in manifest, but force file to be reselected
+                manifest.add(docket.relPath, "", -1, -1);
+                break;
+            case SKIPPED:
+                // may have been indexed before parse filter was changed
+                delete(iwriter, docket.relPath);
+                // keep in manifest, so that file is only reconsidered once changed
+                manifest.add(docket.relPath, docket.hashSum,
+                    docket.size, docket.lastModified);
+                break;
+            case DELETE:
+                delete(iwriter, docket.relPath);
+                break;
+            default:
+                logger.error("Unexpected docket state while processing {}: {}",
+                    docket.relPath, docket.status.toString());
+                cancel(true);   // cancel task
+        }
+    }
+
+    private void delete(IndexWriter iwriter, String relPath) throws IOException {
+        if (!bulk) {    // else: nothing to delete, don't buffer delete terms
+            iwriter.deleteDocuments(new Term(config.pathField, relPath));
+        }
+    }
 }
@@ -0,0 +1,273 @@
+/* Copyright 2016 Evan A. Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.alvanson.xltsearch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Predicate;
+import javax.xml.bind.DatatypeConverter;
+
+// compact record of path, size, last modified and hashsum for each file in the index
+class Manifest {
+    // key of commit user data tying an index commit to its manifest
+    static final String COMMIT_KEY = "xlt.manifest";
+    // keys of commit user data of a checkpoint (see checkpoint())
+    static final String BASE_KEY = "xlt.manifest.base";
+    static final String CHECKPOINT_KEY = "xlt.manifest.entries";
+
+    private static final int MAGIC = 0x584c544d;  // "XLTM"
+    private static final int FORMAT = 1;
+    private static final int BUFFER_SIZE = 65536;
+
+    interface EntryConsumer {
+        // `digest` is only valid for the duration of the call
+        void accept(String relPath, byte[] digest, int length, long size, long lastModified);
+    }
+
+    private final File file;
+    private final String hashAlgorithm;
+    private String token = null;
+    private String baseToken = null;    // of manifest in `file` when this one was opened
+    private File tempFile = null;
+    private DataOutputStream out = null;
+    private long count = 0;     // entries written
+    private boolean failed = false;
+
+    private final Logger logger = LoggerFactory.getLogger(Manifest.class);
+
+    Manifest(File file, String hashAlgorithm) {
+        this.file = file;
+        this.hashAlgorithm = hashAlgorithm;
+    }
+
+    // read all entries in one pass: returns false if manifest does not match `token`
+    boolean read(String token, EntryConsumer consumer) {
+        return read(file, token, Long.MAX_VALUE, consumer);
+    }
+
+    // read entries of an interrupted update from the commit data of its last checkpoint:
+    // entries committed by the update, then entries of the manifest it started from for
+    // paths not already `read`
+    boolean readCheckpoint(Map<String,String> commitData, EntryConsumer consumer,
+            Predicate<String> read) {
+        String token = commitData.get(COMMIT_KEY);
+        String base = commitData.get(BASE_KEY);
+        long entries;
+        try {
+            entries = Long.parseLong(commitData.get(CHECKPOINT_KEY));
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+        if (token == null || !read(getTempFile(token), token, entries, consumer)) {
+            return false;
+        }
+        return base == null ||  // else: interrupted first update
+            read(file, base, Long.MAX_VALUE, (relPath, digest, length, size, lastModified) -> {
+                if (!read.test(relPath)) {
+                    consumer.accept(relPath, digest, length, size, lastModified);
+                }
+            });
+    }
+
+    private boolean read(File file, String token, long entries, EntryConsumer consumer) {
+        if (token == null || !file.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT ||
+                    !in.readUTF().equals(token) || !in.readUTF().equals(hashAlgorithm)) {
+                logger.info("Manifest does not match index: ignoring");
+                return false;
+            }
+            byte[] bytes = new byte[256];
+            for (long i = 0; i < entries && in.readBoolean(); i++) {
+                String relPath = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                int length = in.readUnsignedByte();
+                in.readFully(bytes, 0, length);
+                consumer.accept(relPath, bytes, length, size, lastModified);
+            }
+            return true;
+        } catch (IOException ex) {
+            logger.warn("I/O exception while reading manifest", ex);
+            return false;
+        }
+    }
+
+    // begin writing a new manifest, identified by a new token to be stored with the index commit
+    synchronized void open() {
+        token = UUID.randomUUID().toString();
+        baseToken = readToken(file);
+        // kept until the next complete manifest: may be needed to resume from a checkpoint
+        tempFile = getTempFile(token);
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tempFile), BUFFER_SIZE));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeUTF(token);
+            out.writeUTF(hashAlgorithm);
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    synchronized String getToken() {
+        return token;
+    }
+
+    // index commit data for a complete manifest (call before index is closed)
+    synchronized Map<String,String> getCommitData() {
+        return Collections.singletonMap(COMMIT_KEY, token);
+    }
+
+    // flush entries written so far and return index commit data from which an interrupted
+    // update may be resumed (null if manifest failed): call before committing index, so that
+    // every entry flushed describes a document already written to the index
+    synchronized Map<String,String> checkpoint() {
+        if (out == null) {
+            return null;
+        }
+        try {
+            out.flush();
+        } catch (IOException ex) {
+            fail(ex);
+            return null;
+        }
+        Map<String,String> commitData = new HashMap<>();
+        commitData.put(COMMIT_KEY, token);
+        if (baseToken != null) {
+            commitData.put(BASE_KEY, baseToken);
+        }
+        commitData.put(CHECKPOINT_KEY, Long.toString(count));
+        return commitData;
+    }
+
+    synchronized void add(String relPath, String hashSum, long size, long lastModified) {
+        if (out == null) {
+            return;
+        }
+        try {
+            byte[] bytes = DatatypeConverter.parseHexBinary(hashSum);
+            out.writeBoolean(true);
+            out.writeUTF(relPath);
+            out.writeLong(size);
+            out.writeLong(lastModified);
+            out.writeByte(bytes.length);
+            out.write(bytes);
+            count++;
+        } catch (IOException | IllegalArgumentException ex) {
+            fail(ex);
+        }
+    }
+
+    // finish writing temporary file (call once index has been committed)
+    synchronized void close() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.writeBoolean(false);    // end of entries
+            out.close();
+            out = null;
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    // atomically replace manifest with newly written one
+    synchronized void commit() {
+        if (failed || out != null || tempFile == null || !tempFile.exists()) {
+            return;
+        }
+        try {
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tempFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            logger.warn("I/O exception while saving manifest", ex);
+            return;
+        }
+        // no longer needed to resume an interrupted update
+        deleteTempFiles(file);
+    }
+
+    // delete manifests of incomplete updates alongside `file`
+    static void deleteTempFiles(File file) {
+        File[] tempFiles = file.getAbsoluteFile().getParentFile().listFiles(
+            (dir, name) -> name.startsWith(file.getName() + "."));
+        if (tempFiles != null) {
+            for (File tempFile : tempFiles) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private File getTempFile(String token) {
+        return new File(file.getPath() + "." + token);
+    }
+
+    // token of manifest in `file` (null if none)
+    private String readToken(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+                return null;
+            }
+            return in.readUTF();
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    private void fail(Exception ex) {
+        logger.warn("Exception while writing manifest: manifest discarded", ex);
+        failed = true;
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            out = null;
+        }
+        if (tempFile != null) {
+            tempFile.delete();
+        }
+    }
+}
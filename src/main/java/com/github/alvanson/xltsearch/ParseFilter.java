@@ -0,0 +1,61 @@
+/* Copyright 2016 Evan A. Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.alvanson.xltsearch;
+
+import org.apache.tika.mime.MediaType;
+
+import java.util.Map;
+
+// rules deciding, from media type and size, how much of a selected file to index
+class ParseFilter {
+    enum Action {
+        PARSE,      // extract text and metadata
+        METADATA,   // index path and detected type only
+        SKIP        // leave out of the index
+    }
+
+    private final Map<String,Action> typeRules;  // "type/subtype" or "type/*" -> action
+    private final long maxSize;     // larger files are indexed by metadata only, 0 == no limit
+
+    ParseFilter(Map<String,Action> typeRules, long maxSize) {
+        this.typeRules = typeRules;
+        this.maxSize = maxSize;
+    }
+
+    // true if the media type must be detected to apply() the rules to a file of `size` bytes
+    // (for an oversize file, the type is all that will be indexed)
+    boolean needsType(long size) {
+        return !typeRules.isEmpty() || isOversize(size);
+    }
+
+    // `type` may be null if !needsType(size)
+    Action apply(long size, MediaType type) {
+        Action action = null;
+        if (type != null) {
+            action = typeRules.get(type.getBaseType().toString());
+            if (action == null) {
+                action = typeRules.get(type.getType() + "/*");
+            }
+        }
+        if ((action == null || action == Action.PARSE) && isOversize(size)) {
+            action = Action.METADATA;
+        }
+        return action != null ? action : Action.PARSE;
+    }
+
+    private boolean isOversize(long size) {
+        return maxSize > 0 && size > maxSize;
+    }
+}
@@ -0,0 +1,73 @@
+/* Copyright 2016 Evan A. Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.alvanson.xltsearch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+// files which could not be parsed (or took too long) during the latest index update
+class ParseReport {
+    enum Reason { FAILED, TIMEOUT, LEAKED }     // LEAKED: timed out and could not be stopped
+
+    private final File file;
+    private int failed = 0;
+    private int timedOut = 0;
+    private int leaked = 0;
+    private int metadataOnly = 0;   // by parse filter
+    private int skipped = 0;        // by parse filter
+
+    private final Logger logger = LoggerFactory.getLogger(ParseReport.class);
+
+    ParseReport(File file) {
+        this.file = file;
+        file.delete();  // report covers one update only
+    }
+
+    // append entry: tab-separated time, reason, detail and relative path
+    synchronized void add(Reason reason, String relPath, String detail) {
+        switch (reason) {
+            case FAILED:  failed++;   break;
+            case TIMEOUT: timedOut++; break;
+            case LEAKED:  leaked++;   break;
+        }
+        try (Writer writer = new OutputStreamWriter(
+                new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+            writer.write(new Date().toString() + '\t' + reason.toString() + '\t' +
+                (detail != null ? detail.replace('\t', ' ').replace('\n', ' ') : "") + '\t' +
+                relPath + System.lineSeparator());
+        } catch (IOException ex) {
+            logger.warn("I/O exception while writing parse report", ex);
+        }
+    }
+
+    // parse filter results are counted, but not listed
+    synchronized void addMetadataOnly() { metadataOnly++; }
+    synchronized void addSkipped() { skipped++; }
+
+    synchronized int getFailed() { return failed; }
+    synchronized int getTimedOut() { return timedOut; }
+    synchronized int getLeaked() { return leaked; }
+    synchronized int getMetadataOnly() { return metadataOnly; }
+    synchronized int getSkipped() { return skipped; }
+    File getFile() { return file; }
+}
@@ -14,84 +14,119 @@
  */
 package com.github.alvanson.xltsearch;
 
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.detect.Detector;
 import org.apache.tika.exception.TikaException;
+import org.apache.tika.fork.ForkParser;
 import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
 import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
 import org.apache.tika.sax.BodyContentHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.SAXException;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.concurrent.BlockingQueue;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import javafx.concurrent.Task;
 
 class ParseTask extends Task<Boolean> {
+    private static final int PREFIX_SIZE = 8192;    // bytes read for media type detection
+    private static final long ABANDON_GRACE = 1000;  // ms for an abandoned parse to stop
+    // ms for a child JVM to see (and delete) its kill file: a file left after that belongs
+    // to a child which had already exited
+    private static final long KILL_GRACE = 4 * ForkLauncher.POLL_INTERVAL;
+    // dockets taken at once: parsing is slow, so a worker holding many would leave others idle
+    static final int TAKE_SIZE = 4;
+
     private final File root;
-    private final BlockingQueue<Docket> inQueue;
-    private final BlockingQueue<Docket> outQueue;
+    private final Config config;
+    private final DocketQueue inQueue;
+    private final DocketQueue outQueue;
+    private final AtomicInteger workers;    // number of ParseTasks sharing inQueue
+    private final IndexSession session;
+    private final ParseReport report;
+    private final TextCache cache;  // null == no cache: parse every file
+    private final DuplicateTracker duplicates;
+
+    private Parser parser;
+    private Detector detector;
+    private int forkedCount = 0;    // documents parsed by current child JVM
+    private File killFile = null;   // created to terminate current child JVM
+    private final List<File> killFiles = new ArrayList<>();     // created, maybe not yet seen
+    private Hasher hasher;
+    private ExecutorService executor = null;    // parse thread (watchdog enabled)
+    private Thread parseThread = null;          // ... and the thread itself
 
     private final Logger logger = LoggerFactory.getLogger(ParseTask.class);
 
-    ParseTask(File root, BlockingQueue<Docket> inQueue, BlockingQueue<Docket> outQueue) {
+    ParseTask(File root, Config config, DocketQueue inQueue, DocketQueue outQueue,
+            AtomicInteger workers, IndexSession session, ParseReport report, TextCache cache,
+            DuplicateTracker duplicates) {
         this.root = root;
+        this.config = config;
         this.inQueue = inQueue;
         this.outQueue = outQueue;
+        this.workers = workers;
+        this.session = session;
+        this.report = report;
+        this.cache = cache;
+        this.duplicates = duplicates;
     }
 
     @Override
     protected Boolean call() {
         boolean result = false;
+        boolean finished = false;   // counted out of `workers`
 
         updateMessage("started");
         try {
-            int count = 0;
-            Docket docket;
-            while ((docket = inQueue.take()) != Docket.DONE) {
-                count++;
-                updateMessage(docket.relPath);
-                switch (docket.status) {
-                    case SELECTED:
-                        // index selected file
-                        AutoDetectParser parser = new AutoDetectParser();
-                        docket.content = new BodyContentHandler(-1);  // unlimited chars
-                        docket.metadata = new Metadata();
-                        // pass filename to parser as hint to document format
-                        docket.metadata.set(Metadata.RESOURCE_NAME_KEY, docket.relPath);
-                        try (FileInputStream stream = new FileInputStream(
-                                root.getPath() + File.separator + docket.relPath)) {
-                            // parse file
-                            parser.parse(stream, docket.content, docket.metadata);
-                            docket.status = Docket.Status.PARSED;
-                        } catch (IOException ex) {
-                            docket.status = Docket.Status.PASS;
-                            logger.warn("I/O exception while processing {}", docket.relPath, ex);
-                        } catch (SAXException ex) {
-                            docket.status = Docket.Status.PASS;
-                            logger.warn("SAX exception while processing {}", docket.relPath, ex);
-                        } catch (TikaException ex) {
-                            docket.status = Docket.Status.PASS;
-                            logger.warn("Tika exception while processing {}", docket.relPath, ex);
+            open();
+            DocketBatcher out = new DocketBatcher(outQueue, DocketBatcher.DEFAULT_SIZE,
+                DocketBatcher.DEFAULT_LATENCY);
+            List<Docket> batch = new ArrayList<>();
+            boolean done = false;
+            while (!done) {
+                batch.clear();
+                long taken = inQueue.takeBatch(batch, TAKE_SIZE);
+                try {
+                    for (Docket docket : batch) {
+                        if (docket == Docket.DONE) {
+                            done = true;
+                            break;
                         }
-                        // fall through
-                    case PASS:    // fall through
-                    case DELETE:  // fall through
-                        outQueue.put(docket);
-                        updateProgress(count, count + docket.workLeft);
-                        break;
-                    default:
-                        logger.error("Unexpected docket state while processing {}: {}",
-                            docket.relPath, docket.status.toString());
-                        outQueue.put(Docket.DONE);
-                        cancel(true);   // cancel task
+                        out.flushIfDue();   // don't hold parsed files back behind a slow one
+                        process(docket, out);
+                    }
+                    out.flush();    // before blocking on inQueue
+                } finally {
+                    inQueue.release(taken);
                 }
             }
             // end of queue
             updateMessage("complete");
-            updateProgress(count, count + docket.workLeft);
-            outQueue.put(docket);   // == Docket.DONE
+            inQueue.put(Docket.DONE);   // for remaining workers
+            finished = true;
+            if (workers.decrementAndGet() == 0) {
+                outQueue.put(Docket.DONE);  // last worker out
+            }
             result = true;
         } catch (InterruptedException ex) {
             if (isCancelled()) {
@@ -100,7 +135,367 @@ class ParseTask extends Task<Boolean> {
                 updateMessage("interrupted");
                 logger.error("Interrupted", ex);
             }
+        } finally {
+            close();
+            // let index workers finish (the update has failed) rather than wait forever
+            if (!finished && !isCancelled()) {
+                session.fail();     // files not parsed: manifest incomplete
+                if (workers.decrementAndGet() == 0) {
+                    try {
+                        outQueue.put(Docket.DONE);
+                    } catch (InterruptedException ex) {
+                        logger.error("Interrupted while ending parsing", ex);
+                    }
+                }
+            }
         }
         return result;
     }
+
+    // create this worker's parser (and parse thread, if parse.timeout is set)
+    void open() {
+        hasher = config.newHasher();
+        parser = newParser();
+        detector = TikaConfig.getDefaultConfig().getDetector();
+        if (config.getParseTimeout() > 0) {
+            executor = newExecutor();
+        }
+    }
+
+    void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        closeParser();
+        deleteKillFiles();
+    }
+
+    private Parser newParser() {
+        if (!config.isParseForked()) {
+            // parser discovery is expensive: create once per worker and reuse for each file
+            return new AutoDetectParser(TikaConfig.getDefaultConfig());
+        }
+        // one child JVM per worker: a crash or OutOfMemoryError in the child fails the
+        // current file only, and the child is restarted for the next
+        ForkParser forkParser = new ForkParser(ParseTask.class.getClassLoader(),
+            new AutoDetectParser());
+        forkParser.setPoolSize(1);
+        // child is started through ForkLauncher, so that it can be killed mid-parse
+        killFile = new File(config.getTempDir(), "fork-" + UUID.randomUUID() + ".kill");
+        forkParser.setJavaCommand(Arrays.asList(
+            System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+            "-Xmx" + config.getForkHeap(),
+            "-D" + ForkLauncher.KILL_FILE_PROPERTY + "=" + killFile.getAbsolutePath(),
+            "-cp", getClassPath(),
+            ForkLauncher.class.getName()));
+        forkedCount = 0;
+        return forkParser;
+    }
+
+    // location of this application's classes (for ForkLauncher)
+    private String getClassPath() {
+        try {
+            return new File(ForkLauncher.class.getProtectionDomain().getCodeSource()
+                .getLocation().toURI()).getPath();
+        } catch (URISyntaxException ex) {
+            return System.getProperty("java.class.path");
+        }
+    }
+
+    // replace child JVM after `fork.recycle` parses (successful or not), before any slow
+    // leak catches up
+    private void recycle() {
+        if (parser instanceof ForkParser && ++forkedCount >= config.getForkRecycle()) {
+            closeParser();
+            parser = newParser();
+        }
+    }
+
+    private void closeParser() {
+        if (parser instanceof ForkParser) {
+            ((ForkParser) parser).close();  // terminates idle child JVM
+            // ... and a child still busy with an abandoned or cancelled parse
+            try {
+                killFile.createNewFile();
+                killFiles.add(killFile);
+            } catch (IOException ex) {
+                logger.warn("Could not terminate forked parser", ex);
+            }
+        }
+    }
+
+    // delete kill files not deleted by their child JVMs (see ForkLauncher) within KILL_GRACE:
+    // if interrupted (e.g. cancelled), those remaining are left for Config.clearTempDir(),
+    // as deleting the file of a child yet to see it would leave that child running
+    private void deleteKillFiles() {
+        long deadline = System.nanoTime() + KILL_GRACE * 1000000L;
+        try {
+            for (File file : killFiles) {
+                while (file.exists() && System.nanoTime() - deadline < 0) {
+                    Thread.sleep(ForkLauncher.POLL_INTERVAL / 5);
+                }
+                file.delete();
+            }
+            killFiles.clear();
+        } catch (InterruptedException ex) {
+            // leave the rest: task is ending
+        }
+    }
+
+    private void process(Docket docket, DocketBatcher out) throws InterruptedException {
+        updateMessage(docket.relPath);
+        switch (docket.status) {
+            case SELECTED:
+                // index selected file
+                try {
+                    switch (prefilter(docket)) {
+                        case SKIP:
+                            docket.status = Docket.Status.SKIPPED;
+                            break;
+                        case METADATA:
+                            docket.content = newContentBuffer();    // empty
+                            break;
+                        default:
+                            parseOnce(docket);
+                    }
+                    if (docket.status == Docket.Status.SELECTED) {
+                        docket.status = Docket.Status.PARSED;
+                    }
+                } catch (IOException ex) {
+                    docket.status = Docket.Status.FAILED;
+                    logger.warn("I/O exception while processing {}", docket.relPath, ex);
+                } catch (SAXException ex) {
+                    docket.status = Docket.Status.FAILED;
+                    logger.warn("SAX exception while processing {}", docket.relPath, ex);
+                } catch (TikaException ex) {
+                    docket.status = Docket.Status.FAILED;
+                    logger.warn("Tika exception while processing {}", docket.relPath, ex);
+                }
+                if (docket.status == Docket.Status.FAILED && docket.content != null) {
+                    docket.content.release();
+                    docket.content = null;
+                }
+                // fall through
+            case FAILED:  // fall through
+            case RELOCATE: // fall through (indexed document is moved: nothing to parse)
+            case COPY:    // fall through (indexed document is copied: nothing to parse)
+            case SKIPPED: // fall through
+            case DELETE:  // fall through
+                out.add(docket);
+                break;
+            default:
+                logger.error("Unexpected docket state while processing {}: {}",
+                    docket.relPath, docket.status.toString());
+                // fails this task: the update is failed, and the last worker out ends the
+                // index queue (see call())
+                throw new IllegalStateException("Unexpected docket state: " + docket.status);
+        }
+    }
+
+    // decide from size and detected media type whether to parse docket: if not, docket is
+    // completed with the detected type as its only metadata
+    private ParseFilter.Action prefilter(Docket docket) throws IOException {
+        ParseFilter filter = config.getParseFilter();
+        MediaType type = null;
+        if (filter.needsType(docket.size)) {
+            // detect from name and first few KB only
+            docket.metadata = newMetadata(docket);
+            byte[] prefix = new byte[PREFIX_SIZE];
+            int length = 0;
+            try (FileInputStream stream = new FileInputStream(
+                    root.getPath() + File.separator + docket.relPath)) {
+                int n;
+                while (length < prefix.length &&
+                        (n = stream.read(prefix, length, prefix.length - length)) != -1) {
+                    length += n;
+                }
+            }
+            type = detector.detect(new ByteArrayInputStream(prefix, 0, length), docket.metadata);
+        }
+        ParseFilter.Action action = filter.apply(docket.size, type);
+        if (action == ParseFilter.Action.SKIP) {
+            report.addSkipped();
+        } else if (action == ParseFilter.Action.METADATA) {
+            report.addMetadataOnly();
+            docket.metadata.set(Metadata.CONTENT_TYPE, type.toString());
+        }
+        if (action != ParseFilter.Action.PARSE && docket.hashSum == null) {
+            // not worth reading the whole file: change detection by size and modified only
+            docket.hashSum = "";
+        }
+        return action;
+    }
+
+    // parse docket, unless a file with the same hashsum and size has been parsed in this or a
+    // previous update (and is in the text cache), or is being parsed by another worker
+    void parseOnce(Docket docket)
+            throws IOException, SAXException, TikaException, InterruptedException {
+        if (cache == null || docket.hashSum == null) {
+            parseAndCache(docket);  // no cache, or hashsum not known until parsed
+            return;
+        }
+        if (getCached(docket)) {
+            return;
+        }
+        while (!duplicates.claim(docket.hashSum, docket.size)) {
+            duplicates.await(docket.hashSum, docket.size);
+            if (getCached(docket)) {
+                return;
+            }   // else: other worker failed, try again
+        }
+        try {
+            // other worker may have finished between getCached() and claim()
+            if (!getCached(docket)) {
+                parseAndCache(docket);
+            }
+        } finally {
+            duplicates.release(docket.hashSum, docket.size);
+        }
+    }
+
+    private void parseAndCache(Docket docket)
+            throws IOException, SAXException, TikaException, InterruptedException {
+        try {
+            if (parse(docket) && cache != null) {
+                cache.put(docket.hashSum, docket.size, docket.content, docket.metadata);
+            }
+        } finally {
+            recycle();
+        }
+    }
+
+    // load docket.content and docket.metadata from text cache: returns false if not cached
+    private boolean getCached(Docket docket) {
+        ContentBuffer content = newContentBuffer();
+        Metadata metadata = new Metadata();
+        if (!cache.get(docket.hashSum, docket.size, content, metadata)) {
+            content.release();
+            return false;
+        }
+        docket.content = content;
+        docket.metadata = metadata;
+        duplicates.addReused();
+        // cached entry may have come from an identical file elsewhere
+        metadata.set(Metadata.RESOURCE_NAME_KEY, docket.relPath);
+        return true;
+    }
+
+    // parse file into docket.content and docket.metadata, computing hashsum if not yet known:
+    // returns false if parse was abandoned and only metadata is available
+    private boolean parse(Docket docket)
+            throws IOException, SAXException, TikaException, InterruptedException {
+        // unlimited chars: large content is spilled to disk
+        docket.content = newContentBuffer();
+        docket.metadata = newMetadata(docket);
+        File file = new File(root.getPath() + File.separator + docket.relPath);
+        try (FileInputStream stream = new FileInputStream(file)) {
+            if (executor == null) {
+                String hashSum = parse(stream, docket.content, docket.metadata,
+                    docket.hashSum == null ? hasher : null);
+                if (hashSum != null) {
+                    docket.hashSum = hashSum;
+                }
+                return true;
+            }
+            // parse on watchdog thread: the parse may be abandoned, so it must not touch docket
+            ContentBuffer content = docket.content;
+            Metadata metadata = docket.metadata;
+            Hasher streamHasher = docket.hashSum == null ? hasher : null;
+            Future<String> future = executor.submit(
+                () -> parse(stream, content, metadata, streamHasher));
+            try {
+                String hashSum = future.get(config.getParseTimeout(), TimeUnit.SECONDS);
+                if (hashSum != null) {
+                    docket.hashSum = hashSum;
+                }
+                return true;
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof SAXException) {
+                    throw (SAXException) cause;
+                } else if (cause instanceof TikaException) {
+                    throw (TikaException) cause;
+                } else {
+                    throw new TikaException("Unexpected exception from parser", cause);
+                }
+            } catch (TimeoutException ex) {
+                abandon(docket, future, stream);
+                return false;
+            }
+        } catch (IOException | SAXException | TikaException ex) {
+            report.add(ParseReport.Reason.FAILED, docket.relPath, ex.toString());
+            throw ex;
+        }
+    }
+
+    private String parse(InputStream stream, ContentBuffer content, Metadata metadata,
+            Hasher streamHasher) throws IOException, SAXException, TikaException {
+        BodyContentHandler handler = new BodyContentHandler(content);
+        ParseContext context = new ParseContext();
+        if (streamHasher != null) {
+            // compute hashsum over the same bytes as read by parser
+            HashingInputStream hashStream = new HashingInputStream(stream, streamHasher);
+            parser.parse(hashStream, handler, metadata, context);
+            return hashStream.finish();
+        } else {
+            parser.parse(stream, handler, metadata, context);
+            return null;
+        }
+    }
+
+    // give up on a parse which has exceeded the timeout: index file by metadata only
+    private void abandon(Docket docket, Future<String> future, InputStream stream)
+            throws InterruptedException {
+        logger.warn("Parsing {} timed out after {} s: indexing without content",
+            docket.relPath, config.getParseTimeout());
+        report.add(ParseReport.Reason.TIMEOUT, docket.relPath,
+            config.getParseTimeout() + " s");
+        future.cancel(true);
+        try {
+            stream.close();     // fail any further reads by the parser
+        } catch (IOException ex) {
+            // ignore: abandoned
+        }
+        // the parse thread may never respond to interruption: replace it (and anything it
+        // may still be using) so that this worker can continue with the next file
+        Thread abandoned = parseThread;
+        executor.shutdownNow();
+        executor = newExecutor();
+        closeParser();  // kills child (if forked), failing the abandoned parse
+        parser = newParser();
+        hasher = config.newHasher();
+        // an in-process parse can only be asked to stop: if it doesn't, its thread is left
+        // running (using CPU and memory) until it finishes, or the application exits
+        abandoned.join(ABANDON_GRACE);
+        if (abandoned.isAlive()) {
+            logger.warn("Parse of {} did not stop: thread left running", docket.relPath);
+            report.add(ParseReport.Reason.LEAKED, docket.relPath, abandoned.getName());
+        }
+        docket.content.release();
+        docket.content = newContentBuffer();
+        docket.metadata = newMetadata(docket);
+        docket.incomplete = true;   // hashsum not needed: recorded as unknown
+    }
+
+    private ContentBuffer newContentBuffer() {
+        return new ContentBuffer(config.getTempDir(), ContentBuffer.DEFAULT_MEMORY_LIMIT);
+    }
+
+    private Metadata newMetadata(Docket docket) {
+        Metadata metadata = new Metadata();
+        // pass filename to parser as hint to document format
+        metadata.set(Metadata.RESOURCE_NAME_KEY, docket.relPath);
+        return metadata;
+    }
+
+    private ExecutorService newExecutor() {
+        return Executors.newSingleThreadExecutor((r) -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            parseThread = thread;
+            return thread;
+        });
+    }
 }
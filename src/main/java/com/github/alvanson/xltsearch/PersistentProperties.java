@@ -25,6 +25,10 @@ import java.io.IOException;
 import java.util.Properties;
 
 public class PersistentProperties extends Properties {
+    // held while changing and saving any instance: a file may be changed by several threads,
+    // and through several instances (e.g. a Config used for an update, and one in Configurator)
+    private static final Object SAVE_LOCK = new Object();
+
     private File file;
     private String comments;
     private boolean persistent;  // able to persist changes to `file`
@@ -69,22 +73,43 @@ public class PersistentProperties extends Properties {
         }
     }
 
+    // pick up changes saved through other instances, so that saving this one keeps them
+    private void reload() {
+        if (file.exists()) {
+            try (FileInputStream in = new FileInputStream(file)) {
+                load(in);
+            } catch (IOException ex) {
+                logger.warn("I/O exception while reloading {}", file.getName(), ex);
+            }
+        }
+    }
+
     // persist on every change if `persistent`
     @Override
     public Object setProperty(String key, String value) {
-        Object obj = super.setProperty(key, value);
-        if (persistent) {
-            persist();
+        synchronized (SAVE_LOCK) {
+            if (persistent) {
+                reload();
+            }
+            Object obj = super.setProperty(key, value);
+            if (persistent) {
+                persist();
+            }
+            return obj;
         }
-        return obj;
     }
 
     @Override
     public Object remove(Object key) {
-        Object obj = super.remove(key);
-        if (persistent) {
-            persist();
+        synchronized (SAVE_LOCK) {
+            if (persistent) {
+                reload();
+            }
+            Object obj = super.remove(key);
+            if (persistent) {
+                persist();
+            }
+            return obj;
         }
-        return obj;
     }
 }
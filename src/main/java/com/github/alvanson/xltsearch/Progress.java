@@ -0,0 +1,41 @@
+/* Copyright 2016 Evan A. Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.alvanson.xltsearch;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// progress of an index update shared by all tasks: files completed, whether passed as
+// unchanged by SelectTask or written by IndexTask, out of an estimated total
+class Progress {
+    private final AtomicLong done = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+
+    void addDone() {
+        done.incrementAndGet();
+    }
+
+    // estimate: files seen so far + files expected to be seen (or deleted)
+    void setTotal(long value) {
+        total.set(value);
+    }
+
+    long getDone() {
+        return done.get();
+    }
+
+    long getTotal() {
+        return Math.max(total.get(), done.get());
+    }
+}
@@ -0,0 +1,285 @@
+/* Copyright 2016 Evan A. Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.alvanson.xltsearch;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.FilterAtomicReader;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// view of one segment holding only the documents of moved (or copied) files, each under its
+// new path (and last modified time): passed to IndexWriter.addIndexes() to copy those
+// documents, postings and all, without parsing the files again (content is not stored, so a
+// document cannot be rebuilt from the index); all other fields keep the original's values,
+// including contenttype, which was detected with the original's name as a hint (as for text
+// from the cache): a file moved to another extension may differ from a fresh parse there
+class RelocatingReader extends FilterAtomicReader {
+    private final String pathField;
+    private final String modifiedField;
+    private final FixedBitSet live;
+    private final Map<Integer,String> paths = new HashMap<>();      // docID -> new path
+    private final Map<Integer,Long> modifieds = new HashMap<>();    // docID -> last modified
+    private final TreeMap<BytesRef,Integer> docs = new TreeMap<>(); // new path -> docID
+
+    RelocatingReader(AtomicReader in, String pathField, String modifiedField) {
+        super(in);
+        this.pathField = pathField;
+        this.modifiedField = modifiedField;
+        this.live = new FixedBitSet(in.maxDoc());
+    }
+
+    // whether document `docID` is already included (under one path)
+    boolean contains(int docID) {
+        return paths.containsKey(docID);
+    }
+
+    // include document `docID` (live in the underlying reader) under path `relPath`
+    void relocate(int docID, String relPath, long lastModified) {
+        live.set(docID);
+        paths.put(docID, relPath);
+        modifieds.put(docID, lastModified);
+        docs.put(new BytesRef(relPath), docID);
+    }
+
+    @Override
+    public Bits getLiveDocs() {
+        return live;
+    }
+
+    @Override
+    public int numDocs() {
+        return paths.size();
+    }
+
+    @Override
+    public Fields fields() throws IOException {
+        Fields fields = super.fields();
+        if (fields == null) {
+            return null;
+        }
+        return new FilterFields(fields) {
+            @Override
+            public Terms terms(String field) throws IOException {
+                return field.equals(pathField) ? new PathTerms() : super.terms(field);
+            }
+        };
+    }
+
+    @Override
+    public void document(final int docID, final StoredFieldVisitor visitor) throws IOException {
+        final String relPath = paths.get(docID);
+        if (relPath == null) {
+            super.document(docID, visitor);
+            return;
+        }
+        super.document(docID, new StoredFieldVisitor() {
+            @Override
+            public Status needsField(FieldInfo fieldInfo) throws IOException {
+                return visitor.needsField(fieldInfo);
+            }
+            @Override
+            public void binaryField(FieldInfo fieldInfo, byte[] value) throws IOException {
+                visitor.binaryField(fieldInfo, value);
+            }
+            @Override
+            public void stringField(FieldInfo fieldInfo, String value) throws IOException {
+                visitor.stringField(fieldInfo, fieldInfo.name.equals(pathField) ? relPath : value);
+            }
+            @Override
+            public void intField(FieldInfo fieldInfo, int value) throws IOException {
+                visitor.intField(fieldInfo, value);
+            }
+            @Override
+            public void longField(FieldInfo fieldInfo, long value) throws IOException {
+                visitor.longField(fieldInfo,
+                    fieldInfo.name.equals(modifiedField) ? modifieds.get(docID) : value);
+            }
+            @Override
+            public void floatField(FieldInfo fieldInfo, float value) throws IOException {
+                visitor.floatField(fieldInfo, value);
+            }
+            @Override
+            public void doubleField(FieldInfo fieldInfo, double value) throws IOException {
+                visitor.doubleField(fieldInfo, value);
+            }
+        });
+    }
+
+    // path field: one term (new path) per relocated document
+    private class PathTerms extends Terms {
+        @Override
+        public TermsEnum iterator(TermsEnum reuse) {
+            return new PathTermsEnum();
+        }
+
+        @Override
+        public Comparator<BytesRef> getComparator() {
+            return BytesRef.getUTF8SortedAsUnicodeComparator();
+        }
+
+        @Override
+        public long size() {
+            return docs.size();
+        }
+
+        @Override
+        public long getSumTotalTermFreq() {
+            return -1;  // docs only
+        }
+
+        @Override
+        public long getSumDocFreq() {
+            return docs.size();
+        }
+
+        @Override
+        public int getDocCount() {
+            return docs.size();
+        }
+
+        @Override
+        public boolean hasOffsets() {
+            return false;
+        }
+
+        @Override
+        public boolean hasPositions() {
+            return false;
+        }
+
+        @Override
+        public boolean hasPayloads() {
+            return false;
+        }
+    }
+
+    private class PathTermsEnum extends TermsEnum {
+        private final BytesRef[] terms = docs.keySet().toArray(new BytesRef[docs.size()]);
+        private int ord = -1;
+
+        @Override
+        public BytesRef next() {
+            if (ord < terms.length) {
+                ord++;
+            }
+            return ord < terms.length ? terms[ord] : null;
+        }
+
+        @Override
+        public SeekStatus seekCeil(BytesRef text) {
+            int i = Arrays.binarySearch(terms, text);
+            if (i >= 0) {
+                ord = i;
+                return SeekStatus.FOUND;
+            }
+            ord = -i - 1;
+            return ord < terms.length ? SeekStatus.NOT_FOUND : SeekStatus.END;
+        }
+
+        @Override
+        public void seekExact(long ord) {
+            this.ord = (int) ord;
+        }
+
+        @Override
+        public BytesRef term() {
+            return terms[ord];
+        }
+
+        @Override
+        public long ord() {
+            return ord;
+        }
+
+        @Override
+        public int docFreq() {
+            return 1;
+        }
+
+        @Override
+        public long totalTermFreq() {
+            return -1;  // docs only
+        }
+
+        @Override
+        public DocsEnum docs(Bits liveDocs, DocsEnum reuse, int flags) {
+            int doc = docs.get(terms[ord]);
+            return new SingleDocsEnum(liveDocs == null || liveDocs.get(doc) ?
+                doc : DocsEnum.NO_MORE_DOCS);
+        }
+
+        @Override
+        public DocsAndPositionsEnum docsAndPositions(Bits liveDocs, DocsAndPositionsEnum reuse,
+                int flags) {
+            return null;    // path is indexed without positions
+        }
+
+        @Override
+        public Comparator<BytesRef> getComparator() {
+            return BytesRef.getUTF8SortedAsUnicodeComparator();
+        }
+    }
+
+    private static class SingleDocsEnum extends DocsEnum {
+        private final int target;
+        private int doc = -1;
+
+        SingleDocsEnum(int target) {
+            this.target = target;
+        }
+
+        @Override
+        public int freq() {
+            return 1;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() {
+            doc = doc == -1 ? target : NO_MORE_DOCS;
+            return doc;
+        }
+
+        @Override
+        public int advance(int minDoc) {
+            doc = doc == -1 && target >= minDoc ? target : NO_MORE_DOCS;
+            return doc;
+        }
+
+        @Override
+        public long cost() {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/* Copyright 2016 Evan A. Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.alvanson.xltsearch;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// pairs files selected by SelectTask with indexed files of the same content (hashsum and
+// size), so that their documents are relocated in the index rather than parsed again: a file
+// matching an indexed file not yet seen in the walk is held until the walk ends, then moved
+// from it if it is gone; a file matching an indexed file found unchanged is a copy of it
+class RelocationFinder {
+    private final HashSumMap entries;   // indexed files not (yet) seen in the walk
+    private final Deque<Docket> held = new ArrayDeque<>();
+
+    RelocationFinder(HashSumMap entries) {
+        this.entries = entries;
+    }
+
+    // indexed file `relPath` was found unchanged (and removed from entries)
+    void unchanged(String relPath) {
+        entries.markUnchanged(relPath);
+    }
+
+    // offer a SELECTED docket with a hashsum identifying content (see Config.isContentHash()):
+    // returns false if it is held until pair()
+    boolean offer(Docket docket) {
+        if (entries.containsHashSum(docket.hashSum, docket.size)) {
+            // may be a moved file: hold until it is known whether the original still exists
+            held.add(docket);
+            return false;
+        }
+        copy(docket);
+        return true;
+    }
+
+    // number of dockets held
+    int size() {
+        return held.size();
+    }
+
+    // once the walk has ended (entries holds only files not found): next held docket, in
+    // order, paired with the file it was moved from, if any (null if none remain)
+    Docket pair() {
+        Docket docket = held.poll();
+        if (docket == null) {
+            return null;
+        }
+        String oldPath = entries.removeHashSum(docket.hashSum, docket.size);
+        if (oldPath != null) {
+            docket.status = Docket.Status.RELOCATE;
+            docket.oldPath = oldPath;
+        } else {    // a copy, or the original was changed
+            copy(docket);
+        }
+        return docket;
+    }
+
+    // if `docket` is a copy of a file found unchanged, copy that file's indexed document
+    private void copy(Docket docket) {
+        String oldPath = entries.findUnchanged(docket.hashSum, docket.size);
+        if (oldPath != null) {
+            docket.status = Docket.Status.COPY;
+            docket.oldPath = oldPath;
+        }
+    }
+}
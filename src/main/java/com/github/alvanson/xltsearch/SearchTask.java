@@ -34,14 +34,17 @@ import javafx.concurrent.Task;
 class SearchTask extends Task<List<SearchResult>> {
     private final File root;
     private final Config config;
+    private final IndexSession session;
     private final String qstr;
     private final int limit;
 
     private final Logger logger = LoggerFactory.getLogger(SearchTask.class);
 
-    SearchTask(File root, Config config, String qstr, int limit) {
+    // `session` (may be null): update in progress, to search documents indexed so far
+    SearchTask(File root, Config config, IndexSession session, String qstr, int limit) {
         this.root = root;
         this.config = config;
+        this.session = session;
         this.qstr = qstr;
         this.limit = limit;
     }
@@ -49,13 +52,19 @@ class SearchTask extends Task<List<SearchResult>> {
     @Override
     protected List<SearchResult> call() {
         DirectoryReader ireader = null;
+        IndexSearcher nrtSearcher = null;
         List<SearchResult> results = null;
 
         updateMessage("Searching...");
         try {
-            ireader = DirectoryReader.open(config.getDirectory());
-            IndexSearcher isearcher = new IndexSearcher(ireader);
-            isearcher.setSimilarity(config.getSimilarity());
+            IndexSearcher isearcher;
+            if (session != null && (nrtSearcher = session.acquireSearcher()) != null) {
+                isearcher = nrtSearcher;    // near-real-time: includes uncommitted documents
+            } else {
+                ireader = DirectoryReader.open(config.getDirectory());
+                isearcher = new IndexSearcher(ireader);
+                isearcher.setSimilarity(config.getSimilarity());
+            }
             QueryParser parser = new QueryParser(
                 config.getVersion(), config.contentField, config.getAnalyzer());
             Query query = parser.parse(qstr);
@@ -88,7 +97,14 @@ class SearchTask extends Task<List<SearchResult>> {
             updateMessage("Parse error");
             logger.warn("Parse exception while parsing '{}'", qstr, ex);
         }
-        // close ireader
+        // release searcher/close ireader
+        if (nrtSearcher != null) {
+            try {
+                session.releaseSearcher(nrtSearcher);
+            } catch (IOException ex) {
+                logger.warn("I/O exception while releasing searcher", ex);
+            }
+        }
         if (ireader != null) {
             try {
                 ireader.close();
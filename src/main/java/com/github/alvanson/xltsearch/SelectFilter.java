@@ -0,0 +1,91 @@
+/* Copyright 2016 Evan A. Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.alvanson.xltsearch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+// include/exclude glob patterns and size limit applied by SelectTask while walking files:
+// patterns are comma-separated; a pattern containing '/' is matched against the path relative
+// to the root, any other pattern against the file or directory name alone
+class SelectFilter {
+    private final List<PathMatcher> nameIncludes = new ArrayList<>();
+    private final List<PathMatcher> pathIncludes = new ArrayList<>();
+    private final List<PathMatcher> nameExcludes = new ArrayList<>();
+    private final List<PathMatcher> pathExcludes = new ArrayList<>();
+    private final long maxSize;     // bytes, 0 == no limit
+
+    private final Logger logger = LoggerFactory.getLogger(SelectFilter.class);
+
+    SelectFilter(String includes, String excludes, long maxSize) {
+        compile(includes, nameIncludes, pathIncludes);
+        compile(excludes, nameExcludes, pathExcludes);
+        this.maxSize = maxSize;
+    }
+
+    // true if directory (relative to root) should not be descended into
+    boolean excludesDirectory(Path relDir) {
+        return matches(relDir, nameExcludes, pathExcludes);
+    }
+
+    // true if file (relative to root) should be selected
+    boolean includesFile(Path relPath, long size) {
+        if (maxSize > 0 && size > maxSize) {
+            return false;
+        }
+        if ((!nameIncludes.isEmpty() || !pathIncludes.isEmpty()) &&
+                !matches(relPath, nameIncludes, pathIncludes)) {
+            return false;
+        }
+        return !matches(relPath, nameExcludes, pathExcludes);
+    }
+
+    private static boolean matches(Path relPath, List<PathMatcher> names, List<PathMatcher> paths) {
+        Path name = relPath.getFileName();
+        for (PathMatcher matcher : names) {
+            if (name != null && matcher.matches(name)) {
+                return true;
+            }
+        }
+        for (PathMatcher matcher : paths) {
+            if (matcher.matches(relPath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void compile(String patterns, List<PathMatcher> names, List<PathMatcher> paths) {
+        for (String pattern : patterns.split(",")) {
+            pattern = pattern.trim();
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            try {
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+                (pattern.contains("/") ? paths : names).add(matcher);
+            } catch (PatternSyntaxException ex) {
+                logger.error("Invalid pattern ignored: {}", pattern, ex);
+            }
+        }
+    }
+}
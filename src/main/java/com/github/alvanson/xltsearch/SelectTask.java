@@ -16,6 +16,7 @@ package com.github.alvanson.xltsearch;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
@@ -26,76 +27,123 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.Files;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Deque;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.xml.bind.DatatypeConverter;
 import javafx.concurrent.Task;
 
 class SelectTask extends Task<Boolean> {
+    // files queued ahead of the next docket to be emitted, per hashing thread
+    private static final int PENDING_PER_THREAD = 4;
+    private static final long UPDATE_INTERVAL = 100_000_000L;  // ns
+
     private final File root;
     private final Config config;
-    private final BlockingQueue<Docket> outQueue;
+    private final DocketBatcher outQueue;
+    private final IndexSession session;
+    private final Manifest manifest;
+    private final Progress progress;
+
+    // avoid repeatedly recreating hasher and bytes array (one per thread)
+    private final ThreadLocal<Hasher> hasher;
+    private final ThreadLocal<byte[]> bytes;
+
+    // selection state (accessed on task thread only)
+    private HashSumMap entries;
+    private ExecutorService executor;
+    private final Deque<Future<Docket>> pending = new ArrayDeque<>();
+    // selected files with the same hashsum as a file in the index: moved or copied
+    private RelocationFinder relocations;
+    // files and directories which could not be read during the walk
+    private final List<String> unreadable = new ArrayList<>();
+    private long count = 0;
+    private long lastUpdate = 0;    // time of last UI update, ns
 
     private final Logger logger = LoggerFactory.getLogger(SelectTask.class);
 
-    SelectTask(File root, Config config, BlockingQueue<Docket> outQueue) {
+    SelectTask(File root, Config config, DocketQueue outQueue, IndexSession session,
+            Manifest manifest, Progress progress) {
         this.root = root;
         this.config = config;
-        this.outQueue = outQueue;
+        this.outQueue = new DocketBatcher(outQueue, DocketBatcher.DEFAULT_SIZE,
+            DocketBatcher.DEFAULT_LATENCY);
+        this.session = session;
+        this.manifest = manifest;
+        this.progress = progress;
+        this.hasher = ThreadLocal.withInitial(config::newHasher);
+        this.bytes = ThreadLocal.withInitial(() -> new byte[8192]);
     }
 
     @Override
     protected Boolean call() {
         boolean result = false;
+        boolean sentDone = false;
 
         updateMessage("started");
         try {
-            int count = 0;
-            List<String> files = listFiles();
-            Map<String,String> hashSums = getHashSums();
-            long workLeft = Math.max(files.size(), hashSums.size());    // close enough
-            // avoid repeatedly recreating digest object and bytes array
-            MessageDigest digest = MessageDigest.getInstance(config.getHashAlgorithm());
-            byte[] bytes = new byte[8192];
-            // select files
-            for (String relPath : files) {
-                count++;
-                workLeft--;
-                updateMessage(relPath);
-                File file = new File(root.getPath() + File.separator + relPath);
-                String hashSum = computeHashSum(file, digest, bytes);
-                // compare hash
-                if (!hashSum.equals(hashSums.get(relPath))) {
-                    outQueue.put(new Docket(relPath, hashSum, Docket.Status.SELECTED, workLeft));
-                } else {    // hashes are the same
-                    outQueue.put(new Docket(relPath, hashSum, Docket.Status.PASS, workLeft));
+            entries = getEntries(config.newHasher().getDigestLength());
+            relocations = new RelocationFinder(entries);
+            logger.info("{} files in index, ~{} bytes per file", entries.size(),
+                entries.estimateBytes() / Math.max(entries.size(), 1));
+            // hash files on worker threads, but emit dockets in order
+            executor = Executors.newFixedThreadPool(config.getHashThreads(), (r) -> {
+                Thread thread = new Thread(r);
+                thread.setDaemon(true);
+                return thread;
+            });
+            // select files as they are found
+            walkFiles();
+            while (!pending.isEmpty()) {
+                emit(next());
+            }
+            // keep files under unreadable paths as they are: they may still exist
+            for (String relPath : entries.remaining()) {
+                if (isUnreadable(relPath)) {
+                    HashSumMap.Entry entry = entries.remove(relPath);
+                    manifest.add(relPath, entry.hashSum, entry.size, entry.lastModified);
+                    count++;
+                    progress.addDone();
                 }
-                // remove from map (see below)
-                hashSums.remove(relPath);
-                updateProgress(count, count + workLeft);
+            }
+            // pair moved files with deleted files (those not removed above)
+            for (Docket docket = relocations.pair(); docket != null;
+                    docket = relocations.pair()) {
+                send(docket);
             }
             // delete nonexistent files from index (those not removed above)
-            workLeft = hashSums.keySet().size();
-            for (String relPath : hashSums.keySet()) {
+            progress.setTotal(count + entries.size());
+            for (String relPath : entries.remaining()) {
                 count++;
-                workLeft--;
-                updateMessage("Deleting" + relPath);
-                outQueue.put(new Docket(relPath, "", Docket.Status.DELETE, workLeft));
-                updateProgress(count, count + workLeft);
+                outQueue.add(new Docket(relPath, "", 0, 0, Docket.Status.DELETE));
+                updateStatus("Deleting " + relPath);
             }
             // done
             updateMessage("complete");
-            updateProgress(count, count + workLeft);
-            outQueue.put(Docket.DONE);
+            updateProgress(progress.getDone(), progress.getTotal());
+            outQueue.add(Docket.DONE);
+            outQueue.flush();
+            sentDone = true;
             result = true;
-        } catch (NoSuchAlgorithmException ex) {
+        } catch (IOException ex) {
+            updateMessage("I/O exception");
+            logger.error("I/O exception while listing files", ex);
+        } catch (ExecutionException ex) {
             updateMessage("exception");
-            logger.error("No such algorithm: {}", config.getHashAlgorithm(), ex);
+            logger.error("Exception while selecting files", ex.getCause());
         } catch (InterruptedException ex) {
             if (isCancelled()) {
                 updateMessage("cancelled");
@@ -103,49 +151,215 @@ class SelectTask extends Task<Boolean> {
                 updateMessage("interrupted");
                 logger.error("Interrupted", ex);
             }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            // let workers finish (the update has failed) rather than wait forever
+            if (!sentDone && !isCancelled()) {
+                session.fail();     // files not selected: manifest incomplete
+                try {
+                    outQueue.add(Docket.DONE);
+                    outQueue.flush();
+                } catch (InterruptedException ex) {
+                    logger.error("Interrupted while ending selection", ex);
+                }
+            }
         }
         return result;
     }
 
-    // return list of all files (recursively) under root as relative paths
-    private List<String> listFiles() { return listFiles(""); }
-    // caller must ensure that rel contains trailing separator
-    private List<String> listFiles(String rel) {
-        List<String> files = new ArrayList<>();
-        // build absolute path name
-        String abs = root.getPath() + File.separator + rel;
-        // iterate through each file and directory in `<root>/rel`
-        File dir = new File(abs);
-        for (String name : dir.list()) {
-            if (!name.equals(Catalog.CATALOG_DIR)) {  // don't index the catalog
-                File file = new File(abs + name);
-                if (file.isDirectory()) {
-                    files.addAll(listFiles(rel + name + File.separator));
-                } else {
-                    files.add(rel + name);
+    // walk all files (recursively) under root, submitting each for selection as it is found
+    private void walkFiles() throws IOException, InterruptedException, ExecutionException {
+        final Path rootPath = root.toPath();
+        final SelectFilter filter = config.getSelectFilter();
+        final Exception[] walkException = new Exception[1];
+        Files.walkFileTree(rootPath, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (isCatalog(dir)) {   // don't index the catalog
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                if (!dir.equals(rootPath) && filter.excludesDirectory(rootPath.relativize(dir))) {
+                    return FileVisitResult.SKIP_SUBTREE;    // never descend into excluded trees
                 }
+                return FileVisitResult.CONTINUE;
             }
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                Path relPath = rootPath.relativize(file);
+                if (attrs.isRegularFile() && !isCatalog(file) &&
+                        filter.includesFile(relPath, attrs.size())) {
+                    try {
+                        submit(relPath.toString(), attrs);
+                    } catch (InterruptedException | ExecutionException ex) {
+                        walkException[0] = ex;
+                        return FileVisitResult.TERMINATE;
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                logger.warn("I/O exception while processing {}", file, ex);
+                unreadable.add(rootPath.relativize(file).toString());
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException ex) {
+                if (ex != null) {   // e.g. permission denied partway through directory
+                    logger.warn("I/O exception while listing {}", dir, ex);
+                    unreadable.add(rootPath.relativize(dir).toString());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        // rethrow exceptions raised inside the visitor
+        if (walkException[0] instanceof InterruptedException) {
+            throw (InterruptedException) walkException[0];
+        } else if (walkException[0] instanceof ExecutionException) {
+            throw (ExecutionException) walkException[0];
+        }
+    }
+
+    // true if `relPath` is, or is under, a path which could not be read during the walk
+    private boolean isUnreadable(String relPath) {
+        for (String path : unreadable) {
+            if (path.isEmpty() || relPath.equals(path) ||
+                    relPath.startsWith(path + File.separator)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isCatalog(Path path) {
+        Path name = path.getFileName();
+        return name != null && name.toString().equals(Catalog.CATALOG_DIR);
+    }
+
+    private void submit(String relPath, BasicFileAttributes attrs)
+            throws InterruptedException, ExecutionException {
+        // remove from map (see below)
+        final HashSumMap.Entry entry = entries.remove(relPath);
+        final long size = attrs.size();
+        final long lastModified = attrs.lastModifiedTime().toMillis();
+        // a new or changed file may have been moved or copied from a file in the index, or be
+        // a copy of a file selected before (if any has the same size): its hashsum is needed
+        // up front to pair it, or to share its text with the other
+        final boolean shared = config.isContentHash() && !(entry != null &&
+            entry.size == size && entry.lastModified == lastModified) && entries.addSize(size);
+        pending.add(executor.submit(() -> select(relPath, size, lastModified, entry, shared)));
+        // keep a bounded window of files ahead of the next docket to be emitted
+        if (pending.size() >= config.getHashThreads() * PENDING_PER_THREAD) {
+            emit(next());
+        }
+    }
+
+    // called on worker thread
+    private Docket select(String relPath, long size, long lastModified,
+            HashSumMap.Entry entry, boolean shared) {
+        String hashSum;
+        if (entry != null && !config.isRehashForced() &&
+                entry.size == size && entry.lastModified == lastModified) {
+            hashSum = entry.hashSum;    // assume unchanged: skip reading file
+        } else if (!config.isRehashForced() && !shared && (entry == null ?
+                config.getCacheSize() == 0 : entry.size >= 0 && entry.size != size)) {
+            // resized, or new with no text cache, and no other file of its size: file will be
+            // parsed regardless, so hash while parsing (and cache its text under that
+            // hashsum); a new file is hashed up front if there is a cache, as the index may
+            // have been rebuilt
+            return new Docket(relPath, null, size, lastModified, Docket.Status.SELECTED);
+        } else {
+            File file = new File(root.getPath() + File.separator + relPath);
+            hashSum = computeHashSum(file, hasher.get(), bytes.get());
+        }
+        // compare hash
+        if (entry == null || !hashSum.equals(entry.hashSum)) {
+            return new Docket(relPath, hashSum, size, lastModified, Docket.Status.SELECTED);
+        } else {    // hashes are the same
+            return new Docket(relPath, hashSum, size, lastModified, Docket.Status.PASS);
+        }
+    }
+
+    // wait for the next docket in order (send any batched dockets first, if it isn't ready)
+    private Docket next() throws InterruptedException, ExecutionException {
+        if (!pending.peek().isDone()) {
+            outQueue.flush();
+        }
+        return pending.remove().get();
+    }
+
+    private void emit(Docket docket) throws InterruptedException {
+        // short hashsums (see Config.isContentHash()) collide too often to identify a move
+        if (docket.status == Docket.Status.SELECTED && docket.hashSum != null &&
+                config.isContentHash() && !relocations.offer(docket)) {
+            return;     // held until the walk ends
+        }
+        send(docket);
+    }
+
+    private void send(Docket docket) throws InterruptedException {
+        count++;
+        // estimate from last update: files in the index not yet seen will be seen or deleted
+        progress.setTotal(count + entries.size() + pending.size() + relocations.size());
+        if (docket.status == Docket.Status.PASS) {
+            // unchanged: nothing to parse or index, so bypass the pipeline
+            relocations.unchanged(docket.relPath);  // copies of it copy its document
+            manifest.add(docket.relPath, docket.hashSum, docket.size, docket.lastModified);
+            progress.addDone();
+            outQueue.flushIfDue();  // don't hold back files selected before a run of these
+        } else {
+            outQueue.add(docket);
+        }
+        updateStatus(docket.relPath);
+    }
+
+    // rate-limit updates to the UI thread
+    private void updateStatus(String message) {
+        long now = System.nanoTime();
+        if (now - lastUpdate >= UPDATE_INTERVAL) {
+            lastUpdate = now;
+            updateMessage(message);
+            updateProgress(progress.getDone(), progress.getTotal());
         }
-        return files;
     }
 
-    private Map<String,String> getHashSums() {
-        Map<String,String> hashSums = new HashMap<>();
+    private HashSumMap getEntries(int digestLength) {
+        HashSumMap entries = new HashSumMap(digestLength);
         DirectoryReader ireader = null;
         try {
             if (DirectoryReader.indexExists(config.getDirectory())) {
-                // read hashsums from `directory`
                 ireader = DirectoryReader.open(config.getDirectory());
-                IndexSearcher isearcher = new IndexSearcher(ireader);
-                Query query = new MatchAllDocsQuery();
-                ScoreDoc[] hits = isearcher.search(query, ireader.numDocs()+1).scoreDocs;
-                // collect results
-                for (ScoreDoc hit : hits) {
-                    Document document = isearcher.doc(hit.doc);
-                    String relPath = document.get(config.pathField);
-                    String hashSum = document.get(config.hashSumField);
-                    if (relPath != null && hashSum != null) {
-                        hashSums.put(relPath, hashSum);
+                // prefer manifest written with latest commit, if any
+                Map<String,String> commitData = ireader.getIndexCommit().getUserData();
+                boolean valid;
+                if (commitData.containsKey(Manifest.CHECKPOINT_KEY)) {
+                    // resume interrupted update: skip files committed at last checkpoint
+                    logger.info("Resuming update from last checkpoint");
+                    valid = manifest.readCheckpoint(commitData, entries::put, entries::contains);
+                } else {
+                    valid = manifest.read(commitData.get(Manifest.COMMIT_KEY), entries::put);
+                }
+                if (!valid) {
+                    entries = new HashSumMap(digestLength);
+                    // read hashsums from `directory`
+                    logger.info("No valid manifest: reading hashsums from index");
+                    IndexSearcher isearcher = new IndexSearcher(ireader);
+                    Query query = new MatchAllDocsQuery();
+                    ScoreDoc[] hits = isearcher.search(query, ireader.numDocs()+1).scoreDocs;
+                    // collect results
+                    for (ScoreDoc hit : hits) {
+                        Document document = isearcher.doc(hit.doc);
+                        String relPath = document.get(config.pathField);
+                        String hashSum = document.get(config.hashSumField);
+                        if (relPath != null && hashSum != null) {
+                            // size and last modified are absent from older indexes
+                            entries.put(relPath, hashSum,
+                                getLong(document, config.sizeField),
+                                getLong(document, config.modifiedField));
+                        }
                     }
                 }
             }   // else: return empty map
@@ -159,18 +373,27 @@ class SelectTask extends Task<Boolean> {
                 logger.warn("I/O exception while closing index reader", ex);
             }
         }
-        return hashSums;
+        return entries;
+    }
+
+    private long getLong(Document document, String name) {
+        IndexableField field = document.getField(name);
+        if (field != null && field.numericValue() != null) {
+            return field.numericValue().longValue();
+        } else {
+            return -1;  // never matches
+        }
     }
 
-    private String computeHashSum(File file, MessageDigest digest, byte[] bytes) {
+    private String computeHashSum(File file, Hasher hasher, byte[] bytes) {
         String hashSum = "";
         int bytesRead;
         try (FileInputStream stream = new FileInputStream(file)) {
-            digest.reset();
+            hasher.reset();
             while ((bytesRead = stream.read(bytes)) != -1) {
-                digest.update(bytes, 0, bytesRead);
+                hasher.update(bytes, 0, bytesRead);
             }
-            hashSum = DatatypeConverter.printHexBinary(digest.digest());
+            hashSum = DatatypeConverter.printHexBinary(hasher.digest());
         } catch (IOException ex) {
             logger.warn("I/O exception while processing {}", file, ex);
         }
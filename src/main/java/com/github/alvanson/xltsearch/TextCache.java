@@ -0,0 +1,277 @@
+/* Copyright 2016 Evan A. Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.alvanson.xltsearch;
+
+import org.apache.tika.metadata.Metadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// extracted text and metadata keyed by file hashsum and size, shared by all configs in a
+// catalog (hashsums must be long enough to identify content, see Config.isContentHash())
+class TextCache {
+    private static final int MAGIC = 0x584c5443;  // "XLTC"
+    private static final int FORMAT = 1;
+    private static final int BUFFER_SIZE = 65536;
+    private static final String SUFFIX = ".gz";
+    private static final int MAX_STRING = 64 << 20;     // sanity check on corrupt entries
+
+    private final File dir;
+    private final long maxSize;     // bytes
+    // entry file -> length, least recently used first: filled by a scan of `dir` on first use
+    private final LinkedHashMap<File,Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private boolean scanned = false;
+    private long size = 0;          // bytes, total of `entries`
+
+    private final Logger logger = LoggerFactory.getLogger(TextCache.class);
+
+    // `dir` is specific to the hash algorithm in use
+    TextCache(File dir, long maxSize) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+    }
+
+    // returns true and fills in `content` and `metadata` if `hashSum` and `size` are cached
+    // (on false, `content` and `metadata` may have been partially filled: discard them)
+    boolean get(String hashSum, long size, ContentBuffer content, Metadata metadata) {
+        File file = getFile(hashSum, size);
+        if (!touch(file)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+                throw new IOException("Not a cache entry");
+            }
+            int names = in.readInt();
+            for (int i = 0; i < names; i++) {
+                String name = readString(in);
+                int values = in.readInt();
+                for (int j = 0; j < values; j++) {
+                    metadata.add(name, readString(in));
+                }
+            }
+            Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+            char[] chars = new char[8192];
+            int n;
+            while ((n = reader.read(chars)) != -1) {
+                content.write(chars, 0, n);
+            }
+        } catch (IOException ex) {
+            // corrupt or truncated: drop entry, so that the file is parsed (and cached) again
+            logger.warn("I/O exception while reading cached text for {}", hashSum, ex);
+            removed(file);
+            file.delete();
+            return false;
+        }
+        file.setLastModified(System.currentTimeMillis());   // most recently used, next scan
+        return true;
+    }
+
+    void put(String hashSum, long size, ContentBuffer content, Metadata metadata) {
+        File file = getFile(hashSum, size);
+        File tempFile = new File(file.getPath() + ".tmp" + Thread.currentThread().getId());
+        file.getParentFile().mkdirs();
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE)));
+                    Reader reader = content.getReader()) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                String[] names = metadata.names();
+                out.writeInt(names.length);
+                for (String name : names) {
+                    writeString(out, name);
+                    String[] values = metadata.getValues(name);
+                    out.writeInt(values.length);
+                    for (String value : values) {
+                        writeString(out, value);
+                    }
+                }
+                Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                char[] chars = new char[8192];
+                int n;
+                while ((n = reader.read(chars)) != -1) {
+                    writer.write(chars, 0, n);
+                }
+                writer.flush();
+            }
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tempFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            }
+            added(file, file.length());
+        } catch (IOException ex) {
+            logger.warn("I/O exception while caching text for {}", hashSum, ex);
+            tempFile.delete();
+        }
+    }
+
+    // delete all entries (and `dir`)
+    synchronized void delete() {
+        try {
+            if (dir.exists()) {
+                Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                            throws IOException {
+                        Files.delete(file);
+                        return FileVisitResult.CONTINUE;
+                    }
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path dir, IOException ex)
+                            throws IOException {
+                        Files.delete(dir);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+        } catch (IOException ex) {
+            logger.warn("Could not delete text cache", ex);
+        }
+        entries.clear();
+        scanned = true;
+        size = 0;
+    }
+
+    // total length of entries, bytes
+    synchronized long getSize() {
+        scan();
+        return size;
+    }
+
+    // true if `file` is an entry: marks it most recently used
+    private synchronized boolean touch(File file) {
+        scan();
+        return entries.get(file) != null;
+    }
+
+    // account for new entry, evicting least recently used entries if over capacity
+    private synchronized void added(File file, long length) {
+        scan();     // (if first use) counts `file` as well
+        Long old = entries.put(file, length);
+        size += length - (old != null ? old : 0);
+        if (size > maxSize) {
+            // evict down to 90% of capacity, so that eviction is not needed on every put
+            Iterator<Map.Entry<File,Long>> it = entries.entrySet().iterator();
+            while (size > maxSize / 10 * 9 && it.hasNext()) {
+                Map.Entry<File,Long> entry = it.next();
+                entry.getKey().delete();
+                size -= entry.getValue();
+                it.remove();
+            }
+        }
+    }
+
+    private synchronized void removed(File file) {
+        Long length = entries.remove(file);
+        if (length != null) {
+            size -= length;
+        }
+    }
+
+    // list entries once, in order of last use in previous updates
+    private void scan() {
+        if (scanned) {
+            return;
+        }
+        scanned = true;
+        try {
+            Map<File,Long> lastModified = new HashMap<>();
+            List<File> files = list();
+            for (File file : files) {
+                lastModified.put(file, file.lastModified());
+            }
+            files.sort((a, b) -> Long.compare(lastModified.get(a), lastModified.get(b)));
+            for (File file : files) {
+                long length = file.length();
+                entries.put(file, length);
+                size += length;
+            }
+        } catch (IOException ex) {
+            logger.warn("I/O exception while listing text cache", ex);
+        }
+    }
+
+    private List<File> list() throws IOException {
+        List<File> files = new ArrayList<>();
+        if (dir.exists()) {
+            Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (file.toString().endsWith(SUFFIX)) {
+                        files.add(file.toFile());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        return files;
+    }
+
+    // fan out over subdirectories by leading hex digits
+    private File getFile(String hashSum, long size) {
+        String prefix = hashSum.length() > 2 ? hashSum.substring(0, 2) : "00";
+        return new File(dir.getPath() + File.separator + prefix + File.separator +
+            hashSum + "-" + size + SUFFIX);
+    }
+
+    // metadata values are not limited to the 64K of writeUTF
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
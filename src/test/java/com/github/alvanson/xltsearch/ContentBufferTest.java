@@ -0,0 +1,143 @@
+package com.github.alvanson.xltsearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for ContentBuffer: content held in memory, and spilled to a temporary file past the
+ * memory limit; writes after release (e.g. by an abandoned parse) fail without leaving a file.
+ */
+public class ContentBufferTest
+    extends TestCase
+{
+    private static final int MEMORY_LIMIT = 16;     // chars
+
+    private File dir;
+
+    public ContentBufferTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ContentBufferTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory( "content" ).toFile();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        File[] files = dir.listFiles();
+        if ( files != null )
+        {
+            for ( File f : files )
+            {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    public void testInMemory() throws IOException
+    {
+        ContentBuffer buffer = new ContentBuffer( dir, MEMORY_LIMIT );
+        buffer.write( "0123456789" );
+        buffer.write( "abcdef" );   // exactly at limit
+        assertEquals( 16, buffer.length() );
+        assertTrue( buffer.getMemoryUsage() > 0 );
+        assertEquals( 0, dir.listFiles().length );
+        assertEquals( "0123456789abcdef", read( buffer ) );
+        buffer.release();
+        assertEquals( 0, buffer.getMemoryUsage() );
+    }
+
+    public void testSpill() throws IOException
+    {
+        ContentBuffer buffer = new ContentBuffer( dir, MEMORY_LIMIT );
+        buffer.write( "0123456789" );
+        buffer.write( "abcdefg" );  // past limit: spills what is held so far
+        buffer.write( "\u00e9\u4e2d" );  // non-ASCII survives the round trip
+        assertEquals( 19, buffer.length() );
+        assertEquals( 0, buffer.getMemoryUsage() );
+        assertEquals( 1, dir.listFiles().length );
+        assertEquals( "0123456789abcdefg\u00e9\u4e2d", read( buffer ) );
+
+        buffer.release();
+        assertEquals( "temporary file deleted", 0, dir.listFiles().length );
+    }
+
+    public void testLargeWrite() throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            sb.append( i % 10 );
+        }
+        ContentBuffer buffer = new ContentBuffer( dir, MEMORY_LIMIT );
+        buffer.write( sb.toString() );
+        assertEquals( 1000, buffer.length() );
+        assertEquals( sb.toString(), read( buffer ) );
+        buffer.release();
+    }
+
+    public void testGrowth() throws IOException
+    {
+        // in-memory buffer grows past its initial size, but not past the limit
+        ContentBuffer buffer = new ContentBuffer( dir, 4096 );
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < 4096; i++ )
+        {
+            char c = (char) ( 'a' + i % 26 );
+            buffer.write( c );
+            sb.append( c );
+        }
+        assertEquals( 0, dir.listFiles().length );
+        assertEquals( 2 * 4096, buffer.getMemoryUsage() );
+        assertEquals( sb.toString(), read( buffer ) );
+        buffer.release();
+    }
+
+    public void testWriteAfterRelease() throws IOException
+    {
+        ContentBuffer buffer = new ContentBuffer( dir, MEMORY_LIMIT );
+        buffer.write( "0123456789" );
+        buffer.release();
+        try
+        {
+            buffer.write( "abcdefghijklmnopqrstuvwxyz" );   // would spill
+            fail( "write after release" );
+        }
+        catch ( IOException ex )
+        {
+            // expected
+        }
+        assertEquals( "no temporary file left", 0, dir.listFiles().length );
+    }
+
+    private static String read( ContentBuffer buffer ) throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        try ( Reader reader = buffer.getReader() )
+        {
+            char[] chars = new char[7];
+            int n;
+            while ( ( n = reader.read( chars ) ) >= 0 )
+            {
+                sb.append( chars, 0, n );
+            }
+        }
+        return sb.toString();
+    }
+}
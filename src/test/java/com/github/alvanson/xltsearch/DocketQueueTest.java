@@ -0,0 +1,184 @@
+package com.github.alvanson.xltsearch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for DocketQueue: blocking on the byte budget, and batched transfer.
+ */
+public class DocketQueueTest
+    extends TestCase
+{
+    private static final long TIMEOUT = 5000;   // ms
+
+    public DocketQueueTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( DocketQueueTest.class );
+    }
+
+    public void testEmptyQueueAcceptsOversizeDocket() throws InterruptedException
+    {
+        DocketQueue queue = new DocketQueue( "test", 1 );
+        queue.put( docket( "a" ) );
+        assertEquals( 1, queue.size() );
+    }
+
+    public void testPutBlocksUntilBudgetFreed() throws InterruptedException
+    {
+        Docket docket = docket( "a" );
+        DocketQueue queue = new DocketQueue( "test", 2 * docket.estimateBytes() );
+        queue.put( docket );
+        queue.put( docket( "b" ) );
+
+        Thread producer = start( () -> queue.put( docket( "c" ) ) );
+        awaitBlocked( producer );
+        assertEquals( 2, queue.size() );
+
+        List<Docket> batch = new ArrayList<>();
+        long taken = queue.takeBatch( batch, 1 );
+        assertEquals( docket.estimateBytes(), taken );
+        assertSame( docket, batch.get( 0 ) );
+        Thread.sleep( 50 );
+        assertTrue( "taken docket still charged", producer.isAlive() );
+        assertEquals( 1, queue.size() );
+
+        queue.release( taken );
+        producer.join( TIMEOUT );
+        assertFalse( producer.isAlive() );
+        assertEquals( 2, queue.size() );
+    }
+
+    public void testPutAllBlocksUntilBatchFits() throws InterruptedException
+    {
+        Docket a = docket( "a" );
+        long weight = a.estimateBytes();
+        DocketQueue queue = new DocketQueue( "test", 2 * weight );
+        queue.put( a );
+
+        Thread producer = start( () -> queue.putAll( Arrays.asList( docket( "b" ),
+            docket( "c" ) ), new long[] { weight, weight } ) );
+        awaitBlocked( producer );
+        assertEquals( 1, queue.size() );
+
+        List<Docket> batch = new ArrayList<>();
+        queue.release( queue.takeBatch( batch, 1 ) );
+        producer.join( TIMEOUT );
+        assertFalse( producer.isAlive() );
+        assertEquals( 2, queue.size() );
+    }
+
+    public void testTakeBatch() throws InterruptedException
+    {
+        DocketQueue queue = new DocketQueue( "test", 1 << 20 );
+        List<Docket> batch = new ArrayList<>();
+        Thread consumer = start( () -> queue.takeBatch( batch, 2 ) );
+        awaitBlocked( consumer );
+        assertTrue( batch.isEmpty() );
+
+        for ( String relPath : new String[] { "a", "b", "c" } )
+        {
+            queue.put( docket( relPath ) );
+        }
+        consumer.join( TIMEOUT );
+        assertFalse( consumer.isAlive() );
+        // consumer may have woken after the first put
+        assertFalse( batch.isEmpty() );
+        assertEquals( 3, batch.size() + queue.size() );
+        assertEquals( "a", batch.get( 0 ).relPath );
+
+        batch.clear();
+        int n = queue.size();
+        queue.takeBatch( batch, 10 );
+        assertEquals( n, batch.size() );
+        assertEquals( 0, queue.size() );
+    }
+
+    public void testBatcher() throws InterruptedException
+    {
+        DocketQueue queue = new DocketQueue( "test", 1 << 20 );
+        DocketBatcher batcher = new DocketBatcher( queue, 3, Long.MAX_VALUE );
+        batcher.add( docket( "a" ) );
+        batcher.add( docket( "b" ) );
+        assertEquals( "batch not yet full", 0, queue.size() );
+        batcher.add( docket( "c" ) );
+        assertEquals( 3, queue.size() );
+        batcher.add( docket( "d" ) );
+        batcher.flush();
+        assertEquals( 4, queue.size() );
+
+        batcher = new DocketBatcher( queue, 3, 0 );
+        batcher.add( docket( "e" ) );
+        assertEquals( "latency reached", 5, queue.size() );
+    }
+
+    public void testBatcherFlushesByBytes() throws InterruptedException
+    {
+        long weight = docket( "a" ).estimateBytes();
+        DocketQueue queue = new DocketQueue( "test", DocketBatcher.BUDGET_SHARE * 3 * weight );
+        DocketBatcher batcher = new DocketBatcher( queue, 256, Long.MAX_VALUE );
+        batcher.add( docket( "a" ) );
+        batcher.add( docket( "b" ) );
+        assertEquals( "batch not yet full", 0, queue.size() );
+        batcher.add( docket( "c" ) );
+        assertEquals( "batch holds its share of the budget", 3, queue.size() );
+    }
+
+    public void testFlushIfDue() throws InterruptedException
+    {
+        DocketQueue queue = new DocketQueue( "test", 1 << 20 );
+        DocketBatcher batcher = new DocketBatcher( queue, 256, 1000000 );   // 1 ms
+        batcher.flushIfDue();
+        batcher.add( docket( "a" ) );
+        Thread.sleep( 10 );
+        batcher.flushIfDue();
+        assertEquals( 1, queue.size() );
+    }
+
+    private static Docket docket( String relPath )
+    {
+        return new Docket( relPath, "", 0, 0, Docket.Status.SELECTED );
+    }
+
+    private interface Action
+    {
+        void run() throws InterruptedException;
+    }
+
+    private static Thread start( Action action )
+    {
+        Thread thread = new Thread( () -> {
+            try
+            {
+                action.run();
+            }
+            catch ( InterruptedException ex )
+            {
+                // test failed
+            }
+        } );
+        thread.setDaemon( true );
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitBlocked( Thread thread ) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while ( thread.getState() != Thread.State.WAITING )
+        {
+            assertTrue( "thread should block", thread.isAlive() &&
+                System.currentTimeMillis() < deadline );
+            Thread.sleep( 10 );
+        }
+    }
+}
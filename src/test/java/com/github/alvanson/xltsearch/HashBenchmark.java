@@ -0,0 +1,58 @@
+package com.github.alvanson.xltsearch;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Throughput of the change detection hash algorithms (not run as part of the test suite).
+ *
+ * Run with: java -cp target/classes:target/test-classes com.github.alvanson.xltsearch.HashBenchmark
+ */
+public class HashBenchmark
+{
+    private static final int BUFFER_SIZE = 8192;     // as used by SelectTask
+    private static final int DATA_SIZE = 64 << 20;  // 64 MB
+    private static final int ROUNDS = 5;
+
+    public static void main( String[] args )
+    {
+        Map<String,Supplier<Hasher>> hashers = new LinkedHashMap<>();
+        hashers.put( "MD5", () -> new Hasher.Digest( "MD5" ) );
+        hashers.put( "SHA-1", () -> new Hasher.Digest( "SHA-1" ) );
+        hashers.put( "SHA-256", () -> new Hasher.Digest( "SHA-256" ) );
+        hashers.put( "xxHash64", Hasher.XXHash64::new );
+        if ( Hasher.Crc32c.isAvailable() )
+        {
+            hashers.put( "CRC32C", Hasher.Crc32c::new );
+        }
+
+        byte[] data = new byte[DATA_SIZE];
+        new Random( 42 ).nextBytes( data );
+
+        for ( Map.Entry<String,Supplier<Hasher>> e : hashers.entrySet() )
+        {
+            Hasher hasher = e.getValue().get();
+            hash( hasher, data );   // warm up
+            long start = System.nanoTime();
+            for ( int i = 0; i < ROUNDS; i++ )
+            {
+                hash( hasher, data );
+            }
+            double seconds = ( System.nanoTime() - start ) / 1e9;
+            System.out.printf( "%-10s %8.0f MB/s%n", e.getKey(),
+                ( (double) DATA_SIZE * ROUNDS / ( 1 << 20 ) ) / seconds );
+        }
+    }
+
+    private static byte[] hash( Hasher hasher, byte[] data )
+    {
+        hasher.reset();
+        for ( int offset = 0; offset < data.length; offset += BUFFER_SIZE )
+        {
+            hasher.update( data, offset, Math.min( BUFFER_SIZE, data.length - offset ) );
+        }
+        return hasher.digest();
+    }
+}
@@ -0,0 +1,213 @@
+package com.github.alvanson.xltsearch;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for HashSumMap: lookup by path (with colliding hash codes), lookup and removal by
+ * hashsum and size, sizes seen, lookup of unchanged entries, and growth past the initial
+ * capacity.
+ */
+public class HashSumMapTest
+    extends TestCase
+{
+    private static final int DIGEST_LENGTH = 8;
+    private static final String HASH_A = "0123456789ABCDEF";
+    private static final String HASH_B = "FEDCBA9876543210";
+
+    public HashSumMapTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( HashSumMapTest.class );
+    }
+
+    public void testPutAndRemove()
+    {
+        HashSumMap map = new HashSumMap( DIGEST_LENGTH );
+        String relPath = "dir" + File.separator + "a.txt";
+        map.put( relPath, HASH_A, 10, 100 );
+        assertTrue( map.contains( relPath ) );
+        assertFalse( map.contains( "a.txt" ) );
+        assertEquals( 1, map.size() );
+
+        HashSumMap.Entry entry = map.remove( relPath );
+        assertEquals( HASH_A, entry.hashSum );
+        assertEquals( 10, entry.size );
+        assertEquals( 100, entry.lastModified );
+        assertFalse( map.contains( relPath ) );
+        assertNull( map.remove( relPath ) );
+        assertEquals( 0, map.size() );
+    }
+
+    public void testLowerCaseHashSum()
+    {
+        HashSumMap map = new HashSumMap( DIGEST_LENGTH );
+        map.put( "a.txt", HASH_A.toLowerCase(), 10, 100 );
+        assertEquals( HASH_A, map.remove( "a.txt" ).hashSum );
+    }
+
+    public void testInvalidHashSum()
+    {
+        HashSumMap map = new HashSumMap( DIGEST_LENGTH );
+        map.put( "a.txt", "not hex", 10, 100 );
+        map.put( "b.txt", "0123", 20, 200 );    // wrong length
+        map.put( "c.txt", "", 30, 300 );
+        assertFalse( map.containsHashSum( "0123", 20 ) );
+        assertEquals( "", map.remove( "a.txt" ).hashSum );
+        assertEquals( "", map.remove( "b.txt" ).hashSum );
+        assertEquals( "", map.remove( "c.txt" ).hashSum );
+    }
+
+    public void testCollidingPaths()
+    {
+        // "Aa" and "BB" have the same String.hashCode(): probing must compare paths
+        assertEquals( "Aa".hashCode(), "BB".hashCode() );
+        HashSumMap map = new HashSumMap( DIGEST_LENGTH );
+        map.put( "Aa", HASH_A, 1, 1 );
+        map.put( "BB", HASH_B, 2, 2 );
+        assertEquals( HASH_B, map.remove( "BB" ).hashSum );
+        assertTrue( "entry after removed entry still found", map.contains( "Aa" ) );
+        assertEquals( HASH_A, map.remove( "Aa" ).hashSum );
+    }
+
+    public void testRemoveHashSum()
+    {
+        HashSumMap map = new HashSumMap( DIGEST_LENGTH );
+        map.put( "old.txt", HASH_A, 10, 100 );
+        map.put( "copy.txt", HASH_A, 10, 100 );
+        map.put( "other.txt", HASH_B, 20, 200 );
+
+        assertTrue( map.containsHashSum( HASH_A, 10 ) );
+        assertFalse( "size must match", map.containsHashSum( HASH_A, 11 ) );
+        assertNull( map.removeHashSum( HASH_A, 11 ) );
+        assertFalse( map.containsHashSum( "0000000000000000", 10 ) );
+
+        Set<String> removed = new HashSet<>();
+        removed.add( map.removeHashSum( HASH_A, 10 ) );
+        removed.add( map.removeHashSum( HASH_A, 10 ) );
+        assertTrue( removed.contains( "old.txt" ) );
+        assertTrue( removed.contains( "copy.txt" ) );
+        assertNull( "each entry removed once", map.removeHashSum( HASH_A, 10 ) );
+        assertFalse( map.containsHashSum( HASH_A, 10 ) );
+        assertEquals( 1, map.size() );
+
+        // removal by path hides entry from lookup by hashsum
+        map.remove( "other.txt" );
+        assertFalse( map.containsHashSum( HASH_B, 20 ) );
+    }
+
+    public void testAddSize()
+    {
+        HashSumMap map = new HashSumMap( DIGEST_LENGTH );
+        map.put( "a.txt", HASH_A, 10, 100 );
+        map.put( "failed.txt", "", 20, 300 );
+
+        // sizes of indexed files, removed or not, and of files added before
+        map.remove( "a.txt" );
+        assertTrue( map.addSize( 10 ) );
+        assertFalse( "entry without hashsum can't be matched", map.addSize( 20 ) );
+        assertTrue( map.addSize( 20 ) );
+        assertFalse( map.addSize( 11 ) );
+        assertTrue( map.addSize( 11 ) );
+
+        // entries added after a lookup are found
+        map.put( "b.txt", HASH_B, 30, 400 );
+        assertTrue( map.addSize( 30 ) );
+
+        // many distinct sizes (table grows)
+        for ( int i = 100; i < 5000; i++ )
+        {
+            assertFalse( map.addSize( i ) );
+        }
+        for ( int i = 100; i < 5000; i++ )
+        {
+            assertTrue( map.addSize( i ) );
+        }
+    }
+
+    public void testFindUnchanged()
+    {
+        HashSumMap map = new HashSumMap( DIGEST_LENGTH );
+        map.put( "a.txt", HASH_A, 10, 100 );
+        map.put( "b.txt", HASH_B, 10, 200 );
+
+        // not yet seen: may be moved, not copied
+        assertNull( map.findUnchanged( HASH_A, 10 ) );
+        // seen unchanged: may be copied, not moved
+        map.remove( "a.txt" );
+        map.markUnchanged( "a.txt" );
+        assertEquals( "a.txt", map.findUnchanged( HASH_A, 10 ) );
+        assertNull( map.findUnchanged( HASH_A, 11 ) );
+        assertFalse( map.containsHashSum( HASH_A, 10 ) );
+        // seen changed (removed, not marked)
+        map.remove( "b.txt" );
+        assertNull( map.findUnchanged( HASH_B, 10 ) );
+        // live entries are not marked
+        map.put( "c.txt", HASH_B, 10, 300 );
+        map.markUnchanged( "c.txt" );
+        assertNull( map.findUnchanged( HASH_B, 10 ) );
+    }
+
+    public void testResize()
+    {
+        int n = 5000;   // several times the initial capacity
+        HashSumMap map = new HashSumMap( DIGEST_LENGTH );
+        for ( int i = 0; i < n; i++ )
+        {
+            map.put( path( i ), hashSum( i ), i, -i );
+        }
+        assertEquals( n, map.size() );
+        for ( int i = 0; i < n; i++ )
+        {
+            assertTrue( path( i ), map.contains( path( i ) ) );
+        }
+        // lookup by hashsum, then more entries (lookup table rebuilt after resize)
+        assertTrue( map.containsHashSum( hashSum( 7 ), 7 ) );
+        for ( int i = n; i < 2 * n; i++ )
+        {
+            map.put( path( i ), hashSum( i ), i, -i );
+        }
+        assertEquals( path( n + 7 ), map.removeHashSum( hashSum( n + 7 ), n + 7 ) );
+        assertEquals( path( 7 ), map.removeHashSum( hashSum( 7 ), 7 ) );
+        for ( int i = 0; i < 2 * n; i += 2 )
+        {
+            HashSumMap.Entry entry = map.remove( path( i ) );
+            assertEquals( hashSum( i ), entry.hashSum );
+            assertEquals( i, entry.size );
+            assertEquals( -i, entry.lastModified );
+        }
+        assertEquals( n - 2, map.size() );
+
+        // remaining() returns exactly the entries not removed
+        Set<String> remaining = new HashSet<>();
+        for ( String relPath : map.remaining() )
+        {
+            remaining.add( relPath );
+        }
+        assertEquals( n - 2, remaining.size() );
+        for ( int i = 0; i < 2 * n; i++ )
+        {
+            boolean expected = i % 2 == 1 && i != 7 && i != n + 7;
+            assertEquals( path( i ), expected, remaining.contains( path( i ) ) );
+        }
+    }
+
+    private static String path( int i )
+    {
+        return "dir" + ( i % 10 ) + File.separator + "file" + i + ".txt";
+    }
+
+    private static String hashSum( int i )
+    {
+        return String.format( "%016X", i * 0x9E3779B97F4A7C15L );
+    }
+}
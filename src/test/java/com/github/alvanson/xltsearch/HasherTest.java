@@ -0,0 +1,95 @@
+package com.github.alvanson.xltsearch;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import javax.xml.bind.DatatypeConverter;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for Hasher: known-answer vectors, and streaming in arbitrary chunks.
+ */
+public class HasherTest
+    extends TestCase
+{
+    public HasherTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( HasherTest.class );
+    }
+
+    public void testXXHash64()
+    {
+        Hasher hasher = new Hasher.XXHash64();
+        assertEquals( 8, hasher.getDigestLength() );
+        assertEquals( "EF46DB3751D8E999", hash( hasher, "" ) );
+        assertEquals( "D24EC4F1A98C6E5B", hash( hasher, "a" ) );
+        assertEquals( "44BC2CF5AD770999", hash( hasher, "abc" ) );
+        // longer than one 32-byte stripe
+        assertEquals( "FBCEA83C8A378BF1",
+            hash( hasher, "Nobody inspects the spammish repetition" ) );
+    }
+
+    public void testCrc32c()
+    {
+        if ( !Hasher.Crc32c.isAvailable() )
+        {
+            return;     // Java 8
+        }
+        Hasher hasher = new Hasher.Crc32c();
+        assertEquals( 4, hasher.getDigestLength() );
+        assertEquals( "00000000", hash( hasher, "" ) );
+        assertEquals( "E3069283", hash( hasher, "123456789" ) );
+    }
+
+    public void testDigest()
+    {
+        assertEquals( "D41D8CD98F00B204E9800998ECF8427E", hash( new Hasher.Digest( "MD5" ), "" ) );
+        assertEquals( "A9993E364706816ABA3E25717850C26C9CD0D89D",
+            hash( new Hasher.Digest( "SHA-1" ), "abc" ) );
+    }
+
+    public void testStreaming()
+    {
+        byte[] data = new byte[1000];
+        new Random( 42 ).nextBytes( data );
+        Hasher hasher = new Hasher.XXHash64();
+        hasher.update( data, 0, data.length );
+        byte[] expected = hasher.digest();
+        // chunks smaller than, straddling and larger than a stripe
+        int[] chunks = { 1, 3, 31, 32, 33, 100 };
+        for ( int chunk : chunks )
+        {
+            for ( int offset = 0; offset < data.length; offset += chunk )
+            {
+                hasher.update( data, offset, Math.min( chunk, data.length - offset ) );
+            }
+            assertEquals( "chunk " + chunk, DatatypeConverter.printHexBinary( expected ),
+                DatatypeConverter.printHexBinary( hasher.digest() ) );
+        }
+    }
+
+    public void testDigestResets()
+    {
+        Hasher hasher = new Hasher.XXHash64();
+        String first = hash( hasher, "abc" );
+        assertEquals( first, hash( hasher, "abc" ) );
+        byte[] bytes = "xyz".getBytes( StandardCharsets.US_ASCII );
+        hasher.update( bytes, 0, bytes.length );
+        hasher.reset();
+        assertEquals( first, hash( hasher, "abc" ) );
+    }
+
+    private static String hash( Hasher hasher, String s )
+    {
+        byte[] bytes = s.getBytes( StandardCharsets.US_ASCII );
+        hasher.update( bytes, 0, bytes.length );
+        return DatatypeConverter.printHexBinary( hasher.digest() );
+    }
+}
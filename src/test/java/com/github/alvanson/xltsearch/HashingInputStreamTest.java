@@ -0,0 +1,89 @@
+package com.github.alvanson.xltsearch;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import javax.xml.bind.DatatypeConverter;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for HashingInputStream: the hashsum covers the whole stream, however much of it the
+ * parser read.
+ */
+public class HashingInputStreamTest
+    extends TestCase
+{
+    private byte[] data;
+    private String expected;
+
+    public HashingInputStreamTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( HashingInputStreamTest.class );
+    }
+
+    @Override
+    protected void setUp()
+    {
+        data = new byte[100000];
+        new Random( 42 ).nextBytes( data );
+        Hasher hasher = new Hasher.XXHash64();
+        hasher.update( data, 0, data.length );
+        expected = DatatypeConverter.printHexBinary( hasher.digest() );
+    }
+
+    public void testUnread() throws IOException
+    {
+        assertEquals( expected, open().finish() );
+    }
+
+    public void testPartialRead() throws IOException
+    {
+        HashingInputStream stream = open();
+        byte[] buffer = new byte[1000];
+        assertEquals( 1000, stream.read( buffer, 0, buffer.length ) );
+        assertEquals( data[1000] & 0xFF, stream.read() );
+        assertEquals( expected, stream.finish() );
+    }
+
+    public void testSkip() throws IOException
+    {
+        HashingInputStream stream = open();
+        assertEquals( 50000, stream.skip( 50000 ) );
+        assertEquals( data[50000] & 0xFF, stream.read() );
+        assertEquals( expected, stream.finish() );
+    }
+
+    public void testFullRead() throws IOException
+    {
+        HashingInputStream stream = open();
+        byte[] buffer = new byte[4096];
+        while ( stream.read( buffer, 0, buffer.length ) != -1 )
+        {
+            // read to end, as a parser might
+        }
+        assertEquals( -1, stream.read() );
+        assertEquals( expected, stream.finish() );
+    }
+
+    public void testHasherReset() throws IOException
+    {
+        // hasher left dirty by an abandoned stream
+        Hasher hasher = new Hasher.XXHash64();
+        hasher.update( data, 0, 10 );
+        assertEquals( expected,
+            new HashingInputStream( new ByteArrayInputStream( data ), hasher ).finish() );
+    }
+
+    private HashingInputStream open()
+    {
+        return new HashingInputStream( new ByteArrayInputStream( data ), new Hasher.XXHash64() );
+    }
+}
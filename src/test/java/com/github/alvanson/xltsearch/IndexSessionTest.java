@@ -0,0 +1,155 @@
+package com.github.alvanson.xltsearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.slf4j.helpers.NOPLogger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for IndexSession: a move applied at the checkpoint of an interrupted update is
+ * committed with the index, and the update resumed from that checkpoint finds the moved file
+ * at its new path.
+ */
+public class IndexSessionTest
+    extends TestCase
+{
+    private static final String HASH_A = "0123456789ABCDEF0123456789ABCDEF";   // MD5 (default)
+    private static final String HASH_C = "FEDCBA9876543210FEDCBA9876543210";
+    private static final long SIZE = 100;
+
+    private File configDir;
+
+    public IndexSessionTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( IndexSessionTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        // MessageLogger needs the JavaFX toolkit: discard warnings instead
+        for ( Class<?> c : new Class<?>[] { Config.class, IndexSession.class, Manifest.class } )
+        {
+            MessageLoggerFactory.loggerCache.put( c.getName(), NOPLogger.NOP_LOGGER );
+        }
+        configDir = Files.createTempDirectory( "config" ).toFile();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        delete( configDir );
+    }
+
+    public void testRelocationResumedFromCheckpoint() throws IOException
+    {
+        Config config = new Config( configDir, "test" );
+        config.resolve();
+        assertTrue( config.isResolved() );
+
+        // first update: a.txt and c.txt indexed
+        Manifest manifest = newManifest( config );
+        manifest.open();
+        IndexSession session = new IndexSession( config, manifest, 1 );
+        IndexWriter iwriter = session.open();
+        index( config, iwriter, manifest, "a.txt", HASH_A, "apple" );
+        index( config, iwriter, manifest, "c.txt", HASH_C, "cherry" );
+        assertTrue( session.release( true ) );
+        manifest.commit();
+
+        // second update: a.txt found moved to b.txt, then cancelled (checkpointed on close)
+        manifest = newManifest( config );
+        manifest.open();
+        session = new IndexSession( config, manifest, 1 );
+        session.open();
+        Docket docket = new Docket( "b.txt", HASH_A, SIZE, 20, Docket.Status.RELOCATE );
+        docket.oldPath = "a.txt";
+        session.relocate( docket );
+        session.fail();
+        assertTrue( session.release( false ) );
+
+        // index: document moved at the checkpoint, content and all
+        DirectoryReader ireader = DirectoryReader.open( config.getDirectory() );
+        IndexSearcher isearcher = new IndexSearcher( ireader );
+        assertEquals( 2, ireader.numDocs() );
+        assertEquals( 0, count( isearcher, config.pathField, "a.txt" ) );
+        assertEquals( 1, count( isearcher, config.pathField, "b.txt" ) );
+        assertEquals( 1, count( isearcher, config.contentField, "apple" ) );
+
+        // resumed update (as SelectTask): b.txt from the checkpoint, the rest from the
+        // manifest the update started from
+        Map<String,String> commitData = ireader.getIndexCommit().getUserData();
+        ireader.close();
+        assertTrue( commitData.containsKey( Manifest.CHECKPOINT_KEY ) );
+        HashSumMap entries = new HashSumMap( HASH_A.length() / 2 );
+        assertTrue( newManifest( config ).readCheckpoint( commitData, entries::put,
+            entries::contains ) );
+        HashSumMap.Entry entry = entries.remove( "b.txt" );
+        assertNotNull( entry );
+        assertEquals( HASH_A, entry.hashSum );
+        assertEquals( SIZE, entry.size );
+        assertEquals( 20, entry.lastModified );     // unchanged: not selected again
+        // c.txt unchanged; a.txt no longer exists, so is deleted (already gone from index)
+        assertTrue( entries.contains( "c.txt" ) );
+        assertTrue( entries.contains( "a.txt" ) );
+        assertEquals( 2, entries.size() );
+    }
+
+    // index a file as IndexTask does
+    private static void index( Config config, IndexWriter iwriter, Manifest manifest,
+            String relPath, String hashSum, String content ) throws IOException
+    {
+        Document doc = new Document();
+        doc.add( new StringField( config.pathField, relPath, Field.Store.YES ) );
+        doc.add( new TextField( config.contentField, content, Field.Store.NO ) );
+        doc.add( new StringField( config.hashSumField, hashSum, Field.Store.YES ) );
+        doc.add( new StoredField( config.sizeField, SIZE ) );
+        doc.add( new StoredField( config.modifiedField, 1L ) );
+        iwriter.addDocument( doc );
+        manifest.add( relPath, hashSum, SIZE, 1 );
+    }
+
+    private static Manifest newManifest( Config config )
+    {
+        return new Manifest( config.getManifestFile(), config.getHashAlgorithm() );
+    }
+
+    private static int count( IndexSearcher isearcher, String field, String text )
+            throws IOException
+    {
+        return isearcher.search( new TermQuery( new Term( field, text ) ), 10 ).totalHits;
+    }
+
+    private static void delete( File file )
+    {
+        File[] children = file.listFiles();
+        if ( children != null )
+        {
+            for ( File child : children )
+            {
+                delete( child );
+            }
+        }
+        file.delete();
+    }
+}
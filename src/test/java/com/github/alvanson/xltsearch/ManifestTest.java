@@ -0,0 +1,177 @@
+package com.github.alvanson.xltsearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import javax.xml.bind.DatatypeConverter;
+import org.slf4j.helpers.NOPLogger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for Manifest: binary round trip and resuming from a checkpoint.
+ */
+public class ManifestTest
+    extends TestCase
+{
+    private static final String HASH_ALGORITHM = "SHA-1";
+    private static final String HASH_A = "0123456789ABCDEF0123456789ABCDEF01234567";
+    private static final String HASH_B = "89ABCDEF0123456789ABCDEF0123456789ABCDEF";
+    private static final String HASH_C = "FEDCBA9876543210FEDCBA9876543210FEDCBA98";
+
+    private File dir;
+    private File file;
+
+    public ManifestTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ManifestTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        // MessageLogger needs the JavaFX toolkit: discard warnings instead
+        MessageLoggerFactory.loggerCache.put( Manifest.class.getName(), NOPLogger.NOP_LOGGER );
+        dir = Files.createTempDirectory( "manifest" ).toFile();
+        file = new File( dir, "manifest" );
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        File[] files = dir.listFiles();
+        if ( files != null )
+        {
+            for ( File f : files )
+            {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    public void testRoundTrip()
+    {
+        Manifest manifest = new Manifest( file, HASH_ALGORITHM );
+        manifest.open();
+        manifest.add( "a.txt", HASH_A, 10, 100 );
+        manifest.add( "dir" + File.separator + "b.txt", HASH_B, 20, 200 );
+        manifest.close();
+        manifest.commit();
+        assertTrue( file.exists() );
+        assertEquals( "temporary files deleted on commit", 1, dir.listFiles().length );
+
+        Map<String,String> entries = new HashMap<>();
+        assertTrue( new Manifest( file, HASH_ALGORITHM ).read( manifest.getToken(),
+            collect( entries ) ) );
+        assertEquals( 2, entries.size() );
+        assertEquals( HASH_A + " 10 100", entries.get( "a.txt" ) );
+        assertEquals( HASH_B + " 20 200", entries.get( "dir" + File.separator + "b.txt" ) );
+    }
+
+    public void testMismatchIgnored()
+    {
+        Manifest manifest = new Manifest( file, HASH_ALGORITHM );
+        manifest.open();
+        manifest.add( "a.txt", HASH_A, 10, 100 );
+        manifest.close();
+        manifest.commit();
+
+        Map<String,String> entries = new HashMap<>();
+        assertFalse( "other token", new Manifest( file, HASH_ALGORITHM ).read( "other",
+            collect( entries ) ) );
+        assertFalse( "other algorithm", new Manifest( file, "MD5" ).read( manifest.getToken(),
+            collect( entries ) ) );
+        assertFalse( "no token", new Manifest( file, HASH_ALGORITHM ).read( null,
+            collect( entries ) ) );
+        assertTrue( entries.isEmpty() );
+    }
+
+    public void testUncommittedNotRead()
+    {
+        Manifest manifest = new Manifest( file, HASH_ALGORITHM );
+        manifest.open();
+        manifest.add( "a.txt", HASH_A, 10, 100 );
+        manifest.close();   // not committed: index commit failed
+
+        assertFalse( new Manifest( file, HASH_ALGORITHM ).read( manifest.getToken(),
+            collect( new HashMap<>() ) ) );
+    }
+
+    public void testCheckpointResume()
+    {
+        // complete first update
+        Manifest first = new Manifest( file, HASH_ALGORITHM );
+        first.open();
+        first.add( "a.txt", HASH_A, 10, 100 );
+        first.add( "b.txt", HASH_B, 20, 200 );
+        first.close();
+        first.commit();
+
+        // second update interrupted after its first checkpoint
+        Manifest second = new Manifest( file, HASH_ALGORITHM );
+        second.open();
+        second.add( "a.txt", HASH_C, 11, 101 );     // changed
+        Map<String,String> commitData = second.checkpoint();
+        assertNotNull( commitData );
+        assertEquals( second.getToken(), commitData.get( Manifest.COMMIT_KEY ) );
+        assertEquals( first.getToken(), commitData.get( Manifest.BASE_KEY ) );
+        assertEquals( "1", commitData.get( Manifest.CHECKPOINT_KEY ) );
+        second.add( "c.txt", HASH_C, 30, 300 );     // not committed to index
+
+        Map<String,String> entries = new HashMap<>();
+        assertTrue( new Manifest( file, HASH_ALGORITHM ).readCheckpoint( commitData,
+            collect( entries ), entries::containsKey ) );
+        assertEquals( 2, entries.size() );
+        assertEquals( "checkpointed entry replaces base entry",
+            HASH_C + " 11 101", entries.get( "a.txt" ) );
+        assertEquals( HASH_B + " 20 200", entries.get( "b.txt" ) );
+        assertNull( "entry after checkpoint", entries.get( "c.txt" ) );
+        second.close();
+    }
+
+    public void testCheckpointOfFirstUpdate()
+    {
+        Manifest manifest = new Manifest( file, HASH_ALGORITHM );
+        manifest.open();
+        manifest.add( "a.txt", HASH_A, 10, 100 );
+        Map<String,String> commitData = manifest.checkpoint();
+        assertFalse( commitData.containsKey( Manifest.BASE_KEY ) );
+
+        Map<String,String> entries = new HashMap<>();
+        assertTrue( new Manifest( file, HASH_ALGORITHM ).readCheckpoint( commitData,
+            collect( entries ), entries::containsKey ) );
+        assertEquals( 1, entries.size() );
+        assertEquals( HASH_A + " 10 100", entries.get( "a.txt" ) );
+        manifest.close();
+    }
+
+    public void testInvalidHashSumDiscardsManifest()
+    {
+        Manifest manifest = new Manifest( file, HASH_ALGORITHM );
+        manifest.open();
+        manifest.add( "a.txt", "not hex", 10, 100 );
+        assertNull( manifest.checkpoint() );
+        manifest.close();
+        manifest.commit();
+        assertFalse( file.exists() );
+    }
+
+    // entries as path -> "hashsum size lastModified"
+    private static Manifest.EntryConsumer collect( Map<String,String> entries )
+    {
+        return ( relPath, digest, length, size, lastModified ) -> entries.put( relPath,
+            DatatypeConverter.printHexBinary( Arrays.copyOf( digest, length ) ) +
+            " " + size + " " + lastModified );
+    }
+}
@@ -0,0 +1,147 @@
+package com.github.alvanson.xltsearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.Property;
+import org.apache.tika.mime.MediaType;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for ParseFilter: exact and wildcard media type rules, the size limit, and the index
+ * field holding the detected type of a file indexed by metadata only (and an index built
+ * without that field being rebuilt).
+ */
+public class ParseFilterTest
+    extends TestCase
+{
+    public ParseFilterTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ParseFilterTest.class );
+    }
+
+    public void testNoRules()
+    {
+        ParseFilter filter = new ParseFilter( Collections.emptyMap(), 0 );
+        assertFalse( filter.needsType( 1L << 40 ) );
+        assertEquals( ParseFilter.Action.PARSE, filter.apply( 1L << 40, null ) );
+    }
+
+    public void testTypeRules()
+    {
+        Map<String,ParseFilter.Action> rules = new HashMap<>();
+        rules.put( "image/*", ParseFilter.Action.METADATA );
+        rules.put( "image/svg+xml", ParseFilter.Action.PARSE );
+        rules.put( "application/x-executable", ParseFilter.Action.SKIP );
+        ParseFilter filter = new ParseFilter( rules, 0 );
+        assertTrue( filter.needsType( 1 ) );
+
+        assertEquals( ParseFilter.Action.METADATA, apply( filter, 1, "image/png" ) );
+        assertEquals( "exact type wins over wildcard",
+            ParseFilter.Action.PARSE, apply( filter, 1, "image/svg+xml" ) );
+        assertEquals( ParseFilter.Action.SKIP, apply( filter, 1, "application/x-executable" ) );
+        assertEquals( "parameters ignored",
+            ParseFilter.Action.METADATA, apply( filter, 1, "image/jpeg; q=0.5" ) );
+        assertEquals( "no rule", ParseFilter.Action.PARSE, apply( filter, 1, "text/plain" ) );
+    }
+
+    public void testMaxSize()
+    {
+        Map<String,ParseFilter.Action> rules = new HashMap<>();
+        rules.put( "application/x-executable", ParseFilter.Action.SKIP );
+        ParseFilter filter = new ParseFilter( rules, 100 );
+
+        assertEquals( ParseFilter.Action.PARSE, apply( filter, 100, "text/plain" ) );
+        assertEquals( "oversize: metadata only",
+            ParseFilter.Action.METADATA, apply( filter, 101, "text/plain" ) );
+        assertEquals( "skip wins over size limit",
+            ParseFilter.Action.SKIP, apply( filter, 101, "application/x-executable" ) );
+
+        // type needed for oversize files only, when there are no type rules
+        filter = new ParseFilter( Collections.emptyMap(), 100 );
+        assertFalse( filter.needsType( 100 ) );
+        assertTrue( filter.needsType( 101 ) );
+        assertEquals( ParseFilter.Action.METADATA, apply( filter, 101, "text/plain" ) );
+    }
+
+    public void testDetectedTypeIndexed() throws IOException
+    {
+        File dir = Files.createTempDirectory( "config" ).toFile();
+        try
+        {
+            Property field = new Config( dir, "test" ).metadataFields.get( "contenttype" );
+            assertNotNull( field );
+            // as set by ParseTask for a file not parsed
+            Metadata metadata = new Metadata();
+            metadata.set( Metadata.CONTENT_TYPE, MediaType.parse( "image/png" ).toString() );
+            assertEquals( "image/png", metadata.get( field ) );
+        }
+        finally
+        {
+            deleteFiles( dir );
+        }
+    }
+
+    public void testIndexWithoutDetectedTypeInvalidated() throws IOException
+    {
+        File dir = Files.createTempDirectory( "config" ).toFile();
+        try
+        {
+            // index built in the current format
+            Config config = new Config( dir, "test" );
+            config.resolve();
+            config.setLastUpdated( 1000 );
+            config.close();
+            config = new Config( dir, "test" );
+            config.resolve();
+            assertTrue( config.isResolved() );
+            assertEquals( 1000, config.getLastUpdated() );
+            config.close();
+        }
+        finally
+        {
+            deleteFiles( dir );
+        }
+
+        dir = Files.createTempDirectory( "config" ).toFile();
+        try
+        {
+            // index built before contenttype was indexed (no format recorded)
+            new Config( dir, "test" ).setLastUpdated( 1000 );
+            Config config = new Config( dir, "test" );
+            config.resolve();
+            assertFalse( config.isResolved() );
+            assertEquals( Config.INDEX_INVALIDATED, config.getLastUpdated() );
+        }
+        finally
+        {
+            deleteFiles( dir );
+        }
+    }
+
+    private static void deleteFiles( File dir )
+    {
+        for ( File f : dir.listFiles() )
+        {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static ParseFilter.Action apply( ParseFilter filter, long size, String type )
+    {
+        return filter.apply( size, MediaType.parse( type ) );
+    }
+}
@@ -0,0 +1,138 @@
+package com.github.alvanson.xltsearch;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.tika.metadata.Metadata;
+import org.slf4j.helpers.NOPLogger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for ParseTask: under the default configuration, a file identical to one already
+ * parsed in the same update is indexed from that file's text instead of being parsed again.
+ */
+public class ParseTaskTest
+    extends TestCase
+{
+    private static final String TEXT = "The quick brown fox jumps over the lazy dog";
+
+    private File root;
+    private File configDir;
+
+    public ParseTaskTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ParseTaskTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        // MessageLogger needs the JavaFX toolkit: discard warnings instead
+        for ( Class<?> c : new Class<?>[] { Config.class, ParseTask.class, ParseReport.class,
+            TextCache.class } )
+        {
+            MessageLoggerFactory.loggerCache.put( c.getName(), NOPLogger.NOP_LOGGER );
+        }
+        root = Files.createTempDirectory( "root" ).toFile();
+        configDir = Files.createTempDirectory( "config" ).toFile();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        delete( root );
+        delete( configDir );
+    }
+
+    public void testDuplicateParsedOnce() throws Exception
+    {
+        Config config = new Config( configDir, "test" );
+        config.resolve();
+        assertTrue( config.isResolved() );
+        // defaults: no persistent cache, change detection by size and modified time
+        assertEquals( 0, config.getCacheSize() );
+        assertFalse( config.isRehashForced() );
+        TextCache cache = Catalog.newRunCache( config, 1 );
+        assertNotNull( "run cache is used under the defaults", cache );
+
+        long size = write( "a.txt" );
+        write( "copy of a.txt" );
+        DuplicateTracker duplicates = new DuplicateTracker();
+        ParseTask task = new ParseTask( root, config, null, null, new AtomicInteger( 1 ), null,
+            new ParseReport( new File( configDir, "report" ) ), cache, duplicates );
+        task.open();
+        try
+        {
+            // first of its size: hashed while parsed (see SelectTask.select)
+            Docket first = new Docket( "a.txt", null, size, 1, Docket.Status.SELECTED );
+            task.parseOnce( first );
+            assertNotNull( first.hashSum );
+            assertEquals( TEXT, read( first ) );
+            assertEquals( 0, duplicates.getReused() );
+
+            // same size as a file seen before: hashed up front, so its text is shared
+            Docket copy = new Docket( "copy of a.txt", first.hashSum, size, 2,
+                Docket.Status.SELECTED );
+            task.parseOnce( copy );
+            assertEquals( 1, duplicates.getReused() );
+            assertEquals( TEXT, read( copy ) );
+            assertEquals( "copy of a.txt", copy.metadata.get( Metadata.RESOURCE_NAME_KEY ) );
+        }
+        finally
+        {
+            task.close();
+            cache.delete();
+        }
+    }
+
+    private long write( String relPath ) throws IOException
+    {
+        byte[] bytes = ( TEXT + "\n" ).getBytes( StandardCharsets.UTF_8 );
+        try ( FileOutputStream out = new FileOutputStream( new File( root, relPath ) ) )
+        {
+            out.write( bytes );
+        }
+        return bytes.length;
+    }
+
+    private static String read( Docket docket ) throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        try ( Reader reader = docket.content.getReader() )
+        {
+            char[] chars = new char[64];
+            int n;
+            while ( ( n = reader.read( chars ) ) >= 0 )
+            {
+                sb.append( chars, 0, n );
+            }
+        }
+        docket.content.release();
+        return sb.toString().trim();
+    }
+
+    private static void delete( File file )
+    {
+        File[] children = file.listFiles();
+        if ( children != null )
+        {
+            for ( File child : children )
+            {
+                delete( child );
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.alvanson.xltsearch;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.sax.BodyContentHandler;
+
+/**
+ * Per-file overhead of creating an AutoDetectParser for every file versus reusing one
+ * (not run as part of the test suite).
+ *
+ * Run with: java -cp target/classes:target/test-classes:&lt;dependencies&gt;
+ *     com.github.alvanson.xltsearch.ParserBenchmark
+ */
+public class ParserBenchmark
+{
+    private static final int FILES = 2000;
+
+    public static void main( String[] args ) throws Exception
+    {
+        // corpus of small text files
+        byte[][] corpus = new byte[FILES][];
+        for ( int i = 0; i < FILES; i++ )
+        {
+            corpus[i] = ( "Document " + i + ": the quick brown fox jumps over the lazy dog.\n" )
+                .getBytes( StandardCharsets.UTF_8 );
+        }
+
+        // warm up class loading and JIT
+        run( corpus, false );
+        run( corpus, true );
+
+        double perFile = run( corpus, false );
+        System.out.printf( "new parser per file: %8.1f us/file%n", perFile );
+        perFile = run( corpus, true );
+        System.out.printf( "reused parser:       %8.1f us/file%n", perFile );
+    }
+
+    private static double run( byte[][] corpus, boolean reuse ) throws Exception
+    {
+        AutoDetectParser shared = new AutoDetectParser( TikaConfig.getDefaultConfig() );
+        long start = System.nanoTime();
+        for ( int i = 0; i < corpus.length; i++ )
+        {
+            AutoDetectParser parser = reuse ? shared : new AutoDetectParser();
+            Metadata metadata = new Metadata();
+            metadata.set( Metadata.RESOURCE_NAME_KEY, "file" + i + ".txt" );
+            try ( InputStream stream = new ByteArrayInputStream( corpus[i] ) )
+            {
+                parser.parse( stream, new BodyContentHandler( -1 ), metadata );
+            }
+        }
+        return ( System.nanoTime() - start ) / 1e3 / corpus.length;
+    }
+}
@@ -0,0 +1,247 @@
+package com.github.alvanson.xltsearch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of docket handoff between pipeline stages for a synthetic corpus of 1M tiny files:
+ * one-slot queues, byte-budgeted queues one docket at a time, and batched transfer
+ * (not run as part of the test suite). Stages do no work, so only the handoff is measured.
+ *
+ * Run with: java -cp target/classes:target/test-classes:&lt;dependencies&gt;
+ *     com.github.alvanson.xltsearch.PipelineBenchmark
+ */
+public class PipelineBenchmark
+{
+    private static final int FILES = 1000000;
+    private static final int WORKERS = 4;
+    private static final long BUDGET = 64L << 20;
+    private static final int RUNS = 5;
+
+    private interface Pipeline
+    {
+        void run( Docket[] corpus ) throws Exception;
+    }
+
+    public static void main( String[] args ) throws Exception
+    {
+        Docket[] corpus = new Docket[FILES];
+        for ( int i = 0; i < FILES; i++ )
+        {
+            corpus[i] = new Docket( "dir" + ( i / 1000 ) + "/file" + i + ".txt", "", 16, 0,
+                Docket.Status.SELECTED );
+        }
+
+        run( "one-slot queues", corpus, ( c ) -> single( c,
+            handoff( new ArrayBlockingQueue<>( 1 ) ), handoff( new ArrayBlockingQueue<>( 1 ) ) ) );
+        run( "budgeted, per docket", corpus, ( c ) -> single( c,
+            handoff( new DocketQueue( "parse", BUDGET ) ),
+            handoff( new DocketQueue( "index", BUDGET ) ) ) );
+        run( "budgeted, batched", corpus, PipelineBenchmark::batched );
+    }
+
+    private static void run( String name, Docket[] corpus, Pipeline pipeline ) throws Exception
+    {
+        pipeline.run( corpus );     // warm up
+        double[] rates = new double[RUNS];
+        for ( int i = 0; i < RUNS; i++ )
+        {
+            long start = System.nanoTime();
+            pipeline.run( corpus );
+            rates[i] = corpus.length / ( ( System.nanoTime() - start ) / 1e9 );
+        }
+        Arrays.sort( rates );
+        System.out.printf( "%-22s %10.0f dockets/s (median of %d, %.0f-%.0f)%n", name,
+            rates[RUNS / 2], RUNS, rates[0], rates[RUNS - 1] );
+    }
+
+    private interface Handoff
+    {
+        void put( Docket docket ) throws InterruptedException;
+
+        Docket take() throws InterruptedException;
+    }
+
+    private static Handoff handoff( BlockingQueue<Docket> queue )
+    {
+        return new Handoff()
+        {
+            public void put( Docket docket ) throws InterruptedException
+            {
+                queue.put( docket );
+            }
+
+            public Docket take() throws InterruptedException
+            {
+                return queue.take();
+            }
+        };
+    }
+
+    private static Handoff handoff( DocketQueue queue )
+    {
+        return new Handoff()
+        {
+            public void put( Docket docket ) throws InterruptedException
+            {
+                queue.put( docket );
+            }
+
+            public Docket take() throws InterruptedException
+            {
+                List<Docket> batch = new ArrayList<>( 1 );     // per call: shared by workers
+                queue.release( queue.takeBatch( batch, 1 ) );
+                return batch.get( 0 );
+            }
+        };
+    }
+
+    private static void single( Docket[] corpus, Handoff parseQueue, Handoff indexQueue )
+        throws Exception
+    {
+        AtomicInteger workers = new AtomicInteger( WORKERS );
+        List<Thread> threads = new ArrayList<>();
+        threads.add( start( () -> {
+            for ( Docket docket : corpus )
+            {
+                parseQueue.put( docket );
+            }
+            parseQueue.put( Docket.DONE );
+        } ) );
+        for ( int w = 0; w < WORKERS; w++ )
+        {
+            threads.add( start( () -> {
+                Docket docket;
+                while ( ( docket = parseQueue.take() ) != Docket.DONE )
+                {
+                    indexQueue.put( docket );
+                }
+                parseQueue.put( docket );
+                if ( workers.decrementAndGet() == 0 )
+                {
+                    indexQueue.put( docket );
+                }
+            } ) );
+        }
+        threads.add( start( () -> {
+            int count = 0;
+            while ( indexQueue.take() != Docket.DONE )
+            {
+                count++;
+            }
+            check( count, corpus.length );
+        } ) );
+        join( threads );
+    }
+
+    private static void batched( Docket[] corpus ) throws Exception
+    {
+        DocketQueue parseQueue = new DocketQueue( "parse", BUDGET );
+        DocketQueue indexQueue = new DocketQueue( "index", BUDGET );
+        AtomicInteger workers = new AtomicInteger( WORKERS );
+        List<Thread> threads = new ArrayList<>();
+        threads.add( start( () -> {
+            DocketBatcher out = new DocketBatcher( parseQueue, DocketBatcher.DEFAULT_SIZE,
+                DocketBatcher.DEFAULT_LATENCY );
+            for ( Docket docket : corpus )
+            {
+                out.add( docket );
+            }
+            out.add( Docket.DONE );
+            out.flush();
+        } ) );
+        for ( int w = 0; w < WORKERS; w++ )
+        {
+            threads.add( start( () -> {
+                DocketBatcher out = new DocketBatcher( indexQueue, DocketBatcher.DEFAULT_SIZE,
+                    DocketBatcher.DEFAULT_LATENCY );
+                List<Docket> batch = new ArrayList<>();
+                boolean done = false;
+                while ( !done )
+                {
+                    batch.clear();
+                    long taken = parseQueue.takeBatch( batch, ParseTask.TAKE_SIZE );
+                    for ( Docket docket : batch )
+                    {
+                        if ( docket == Docket.DONE )
+                        {
+                            done = true;
+                            break;
+                        }
+                        out.add( docket );
+                    }
+                    out.flush();
+                    parseQueue.release( taken );
+                }
+                parseQueue.put( Docket.DONE );
+                if ( workers.decrementAndGet() == 0 )
+                {
+                    indexQueue.put( Docket.DONE );
+                }
+            } ) );
+        }
+        threads.add( start( () -> {
+            List<Docket> batch = new ArrayList<>();
+            int count = 0;
+            boolean done = false;
+            while ( !done )
+            {
+                batch.clear();
+                long taken = indexQueue.takeBatch( batch, DocketBatcher.DEFAULT_SIZE );
+                for ( Docket docket : batch )
+                {
+                    if ( docket == Docket.DONE )
+                    {
+                        done = true;
+                        break;
+                    }
+                    count++;
+                }
+                indexQueue.release( taken );
+            }
+            check( count, corpus.length );
+        } ) );
+        join( threads );
+    }
+
+    private interface Stage
+    {
+        void run() throws InterruptedException;
+    }
+
+    private static Thread start( Stage stage )
+    {
+        Thread thread = new Thread( () -> {
+            try
+            {
+                stage.run();
+            }
+            catch ( InterruptedException ex )
+            {
+                throw new IllegalStateException( ex );
+            }
+        } );
+        thread.start();
+        return thread;
+    }
+
+    private static void join( List<Thread> threads ) throws InterruptedException
+    {
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+    }
+
+    private static void check( int count, int expected )
+    {
+        if ( count != expected )
+        {
+            throw new IllegalStateException( count + " dockets indexed, expected " + expected );
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.github.alvanson.xltsearch;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for RelocatingReader: a document copied through IndexWriter.addIndexes() is found
+ * by its new path and by its (unstored) content, from one segment or several, and once per
+ * copy; the path terms and stored fields seen through the reader itself.
+ */
+public class RelocatingReaderTest
+    extends TestCase
+{
+    private static final String PATH = "path";
+    private static final String CONTENT = "content";
+    private static final String MODIFIED = "filemodified";
+
+    public RelocatingReaderTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( RelocatingReaderTest.class );
+    }
+
+    public void testRelocate() throws IOException
+    {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iwriter = newIndexWriter( directory );
+        iwriter.addDocument( newDocument( "a.txt", "apple", 1 ) );
+        iwriter.addDocument( newDocument( "b.txt", "banana", 2 ) );
+        iwriter.addDocument( newDocument( "c.txt", "cherry", 3 ) );
+        iwriter.commit();
+
+        // move b.txt to dir/b.txt, as IndexSession does
+        DirectoryReader ireader = DirectoryReader.open( iwriter, true );
+        AtomicReaderContext leaf = ireader.leaves().get( 0 );
+        DocsEnum docsEnum = leaf.reader().termDocsEnum( new Term( PATH, "b.txt" ) );
+        RelocatingReader reader = new RelocatingReader( leaf.reader(), PATH, MODIFIED );
+        reader.relocate( docsEnum.nextDoc(), "dir/b.txt", 20 );
+        assertEquals( 1, reader.numDocs() );
+        iwriter.deleteDocuments( new Term( PATH, "b.txt" ) );
+        iwriter.addIndexes( reader );
+        ireader.close();
+        iwriter.close();
+
+        ireader = DirectoryReader.open( directory );
+        IndexSearcher isearcher = new IndexSearcher( ireader );
+        assertEquals( 3, ireader.numDocs() );
+        assertEquals( 0, search( isearcher, PATH, "b.txt" ).totalHits );
+        TopDocs moved = search( isearcher, PATH, "dir/b.txt" );
+        assertEquals( 1, moved.totalHits );
+        Document document = isearcher.doc( moved.scoreDocs[0].doc );
+        assertEquals( "dir/b.txt", document.get( PATH ) );
+        assertEquals( 20, document.getField( MODIFIED ).numericValue().longValue() );
+        // content is not stored: found through copied postings
+        TopDocs found = search( isearcher, CONTENT, "banana" );
+        assertEquals( 1, found.totalHits );
+        assertEquals( moved.scoreDocs[0].doc, found.scoreDocs[0].doc );
+        // other documents untouched
+        assertEquals( 1, search( isearcher, PATH, "a.txt" ).totalHits );
+        assertEquals( 1, search( isearcher, CONTENT, "cherry" ).totalHits );
+        ireader.close();
+    }
+
+    public void testRelocateAcrossSegments() throws IOException
+    {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iwriter = newIndexWriter( directory );
+        // one segment per commit
+        iwriter.addDocument( newDocument( "a.txt", "apple", 1 ) );
+        iwriter.commit();
+        iwriter.addDocument( newDocument( "b.txt", "banana", 2 ) );
+        iwriter.commit();
+
+        // move a.txt and b.txt, and copy b.txt twice, as IndexSession does
+        DirectoryReader ireader = DirectoryReader.open( iwriter, true );
+        assertEquals( 2, ireader.leaves().size() );
+        RelocatingReader first = newReader( ireader, 0 );
+        RelocatingReader second = newReader( ireader, 1 );
+        RelocatingReader third = newReader( ireader, 1 );
+        first.relocate( find( ireader, 0, "a.txt" ), "moved/a.txt", 10 );
+        int doc = find( ireader, 1, "b.txt" );
+        second.relocate( doc, "moved/b.txt", 20 );
+        assertTrue( second.contains( doc ) );
+        assertFalse( third.contains( doc ) );
+        third.relocate( doc, "copy/b.txt", 30 );
+        iwriter.deleteDocuments( new Term( PATH, "a.txt" ), new Term( PATH, "b.txt" ) );
+        iwriter.addIndexes( first, second, third );
+        ireader.close();
+        iwriter.close();
+
+        ireader = DirectoryReader.open( directory );
+        IndexSearcher isearcher = new IndexSearcher( ireader );
+        assertEquals( 3, ireader.numDocs() );
+        assertEquals( 0, search( isearcher, PATH, "a.txt" ).totalHits );
+        assertEquals( 0, search( isearcher, PATH, "b.txt" ).totalHits );
+        assertEquals( 1, search( isearcher, PATH, "moved/a.txt" ).totalHits );
+        assertEquals( 1, search( isearcher, PATH, "moved/b.txt" ).totalHits );
+        TopDocs copy = search( isearcher, PATH, "copy/b.txt" );
+        assertEquals( 1, copy.totalHits );
+        Document document = isearcher.doc( copy.scoreDocs[0].doc );
+        assertEquals( 30, document.getField( MODIFIED ).numericValue().longValue() );
+        assertEquals( 1, search( isearcher, CONTENT, "apple" ).totalHits );
+        assertEquals( 2, search( isearcher, CONTENT, "banana" ).totalHits );
+        ireader.close();
+    }
+
+    public void testReaderView() throws IOException
+    {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iwriter = newIndexWriter( directory );
+        iwriter.addDocument( newDocument( "a.txt", "apple", 1 ) );
+        iwriter.addDocument( newDocument( "b.txt", "banana", 2 ) );
+        iwriter.addDocument( newDocument( "c.txt", "cherry", 3 ) );
+        iwriter.commit();
+
+        DirectoryReader ireader = DirectoryReader.open( iwriter, true );
+        RelocatingReader reader = newReader( ireader, 0 );
+        int docA = find( ireader, 0, "a.txt" );
+        int docB = find( ireader, 0, "b.txt" );
+        int docC = find( ireader, 0, "c.txt" );
+        reader.relocate( docA, "x/a.txt", 10 );
+        reader.relocate( docC, "x/c.txt", 30 );
+        assertEquals( 2, reader.numDocs() );
+        assertFalse( reader.getLiveDocs().get( docB ) );
+
+        // path terms: new paths only, in order
+        TermsEnum termsEnum = reader.fields().terms( PATH ).iterator( null );
+        assertEquals( "x/a.txt", termsEnum.next().utf8ToString() );
+        assertEquals( "x/c.txt", termsEnum.next().utf8ToString() );
+        assertNull( termsEnum.next() );
+        assertEquals( TermsEnum.SeekStatus.FOUND,
+            termsEnum.seekCeil( new BytesRef( "x/c.txt" ) ) );
+        assertEquals( "x/c.txt", termsEnum.term().utf8ToString() );
+        assertEquals( TermsEnum.SeekStatus.NOT_FOUND,
+            termsEnum.seekCeil( new BytesRef( "x/b.txt" ) ) );
+        assertEquals( "x/c.txt", termsEnum.term().utf8ToString() );
+        assertEquals( TermsEnum.SeekStatus.NOT_FOUND,
+            termsEnum.seekCeil( new BytesRef( "b.txt" ) ) );
+        assertEquals( "x/a.txt", termsEnum.term().utf8ToString() );
+        assertEquals( TermsEnum.SeekStatus.END, termsEnum.seekCeil( new BytesRef( "y" ) ) );
+
+        // postings of a path: its one document
+        termsEnum.seekCeil( new BytesRef( "x/c.txt" ) );
+        DocsEnum docsEnum = termsEnum.docs( null, null, DocsEnum.FLAG_NONE );
+        assertEquals( docC, docsEnum.advance( docB ) );
+        assertEquals( DocsEnum.NO_MORE_DOCS, docsEnum.nextDoc() );
+        docsEnum = termsEnum.docs( null, null, DocsEnum.FLAG_NONE );
+        assertEquals( DocsEnum.NO_MORE_DOCS, docsEnum.advance( docC + 1 ) );
+        docsEnum = termsEnum.docs( reader.getLiveDocs(), null, DocsEnum.FLAG_NONE );
+        assertEquals( docC, docsEnum.nextDoc() );
+
+        // stored fields: rewritten for relocated documents only
+        Document document = reader.document( docA );
+        assertEquals( "x/a.txt", document.get( PATH ) );
+        assertEquals( 10, document.getField( MODIFIED ).numericValue().longValue() );
+        document = reader.document( docB );
+        assertEquals( "b.txt", document.get( PATH ) );
+        assertEquals( 2, document.getField( MODIFIED ).numericValue().longValue() );
+        ireader.close();
+        iwriter.close();
+    }
+
+    private static IndexWriter newIndexWriter( RAMDirectory directory ) throws IOException
+    {
+        IndexWriterConfig iwconfig = new IndexWriterConfig( Version.LUCENE_46,
+            new WhitespaceAnalyzer( Version.LUCENE_46 ) );
+        return new IndexWriter( directory, iwconfig );
+    }
+
+    private static RelocatingReader newReader( DirectoryReader ireader, int leaf )
+    {
+        return new RelocatingReader( ireader.leaves().get( leaf ).reader(), PATH, MODIFIED );
+    }
+
+    // docID of `relPath` in segment `leaf`
+    private static int find( DirectoryReader ireader, int leaf, String relPath )
+            throws IOException
+    {
+        AtomicReaderContext context = ireader.leaves().get( leaf );
+        return context.reader().termDocsEnum( new Term( PATH, relPath ) ).nextDoc();
+    }
+
+    private static Document newDocument( String relPath, String content, long lastModified )
+    {
+        Document document = new Document();
+        document.add( new StringField( PATH, relPath, Field.Store.YES ) );
+        document.add( new TextField( CONTENT, content, Field.Store.NO ) );
+        document.add( new StoredField( MODIFIED, lastModified ) );
+        return document;
+    }
+
+    private static TopDocs search( IndexSearcher isearcher, String field, String text )
+            throws IOException
+    {
+        return isearcher.search( new TermQuery( new Term( field, text ) ), 10 );
+    }
+}
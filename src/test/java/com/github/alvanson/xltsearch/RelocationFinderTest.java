@@ -0,0 +1,132 @@
+package com.github.alvanson.xltsearch;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for RelocationFinder: a selected file with the content of an indexed file is moved
+ * from it if it is gone, copied from it if it is unchanged, and parsed if it was changed or
+ * only its size is the same.
+ */
+public class RelocationFinderTest
+    extends TestCase
+{
+    private static final int DIGEST_LENGTH = 8;
+    private static final String HASH_A = "0123456789ABCDEF";
+    private static final String HASH_B = "FEDCBA9876543210";
+
+    private HashSumMap entries;
+    private RelocationFinder finder;
+
+    public RelocationFinderTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( RelocationFinderTest.class );
+    }
+
+    @Override
+    protected void setUp()
+    {
+        // index holds a.txt
+        entries = new HashSumMap( DIGEST_LENGTH );
+        entries.put( "a.txt", HASH_A, 10, 100 );
+        finder = new RelocationFinder( entries );
+    }
+
+    public void testMove()
+    {
+        // b.txt found first: a.txt may still be found
+        Docket docket = selected( "b.txt", HASH_A, 10 );
+        assertFalse( finder.offer( docket ) );
+        assertEquals( 1, finder.size() );
+        // walk ends without a.txt
+        assertSame( docket, finder.pair() );
+        assertEquals( Docket.Status.RELOCATE, docket.status );
+        assertEquals( "a.txt", docket.oldPath );
+        assertEquals( "a.txt no longer to be deleted", 0, entries.size() );
+        assertNull( finder.pair() );
+    }
+
+    public void testCopyOfFileFoundBefore()
+    {
+        found( "a.txt", true );
+        Docket docket = selected( "b.txt", HASH_A, 10 );
+        assertTrue( finder.offer( docket ) );
+        assertEquals( Docket.Status.COPY, docket.status );
+        assertEquals( "a.txt", docket.oldPath );
+    }
+
+    public void testCopyOfFileFoundAfter()
+    {
+        Docket docket = selected( "b.txt", HASH_A, 10 );
+        assertFalse( finder.offer( docket ) );
+        found( "a.txt", true );
+        assertSame( docket, finder.pair() );
+        assertEquals( Docket.Status.COPY, docket.status );
+        assertEquals( "a.txt", docket.oldPath );
+    }
+
+    public void testOriginalChanged()
+    {
+        Docket docket = selected( "b.txt", HASH_A, 10 );
+        assertFalse( finder.offer( docket ) );
+        found( "a.txt", false );    // a.txt now has other content: b.txt must be parsed
+        assertSame( docket, finder.pair() );
+        assertEquals( Docket.Status.SELECTED, docket.status );
+        assertNull( docket.oldPath );
+        // nor is a copy of a changed file found later paired with it
+        Docket other = selected( "c.txt", HASH_A, 10 );
+        assertTrue( finder.offer( other ) );
+        assertEquals( Docket.Status.SELECTED, other.status );
+    }
+
+    public void testSameSizeOtherContent()
+    {
+        Docket docket = selected( "b.txt", HASH_B, 10 );
+        assertTrue( finder.offer( docket ) );
+        assertEquals( Docket.Status.SELECTED, docket.status );
+        assertEquals( 0, finder.size() );
+        // a.txt, not found, is deleted
+        assertEquals( 1, entries.size() );
+        found( "a.txt", true );
+        assertTrue( finder.offer( docket ) );
+        assertEquals( Docket.Status.SELECTED, docket.status );
+        // same content, other size (e.g. truncated hashsum collision): not the same file
+        Docket resized = selected( "c.txt", HASH_A, 11 );
+        assertTrue( finder.offer( resized ) );
+        assertEquals( Docket.Status.SELECTED, resized.status );
+    }
+
+    public void testOneMovePerFile()
+    {
+        // two files with a.txt's content, a.txt gone: one is moved, the other is new
+        Docket first = selected( "b.txt", HASH_A, 10 );
+        Docket second = selected( "c.txt", HASH_A, 10 );
+        assertFalse( finder.offer( first ) );
+        assertFalse( finder.offer( second ) );
+        assertSame( first, finder.pair() );
+        assertSame( second, finder.pair() );
+        assertEquals( Docket.Status.RELOCATE, first.status );
+        assertEquals( Docket.Status.SELECTED, second.status );
+    }
+
+    // walk finds indexed file `relPath`, as SelectTask does
+    private void found( String relPath, boolean unchanged )
+    {
+        assertNotNull( entries.remove( relPath ) );
+        if ( unchanged )
+        {
+            finder.unchanged( relPath );
+        }
+    }
+
+    private static Docket selected( String relPath, String hashSum, long size )
+    {
+        return new Docket( relPath, hashSum, size, 200, Docket.Status.SELECTED );
+    }
+}
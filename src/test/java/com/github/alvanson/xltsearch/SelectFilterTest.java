@@ -0,0 +1,98 @@
+package com.github.alvanson.xltsearch;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.slf4j.helpers.NOPLogger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for SelectFilter: name and path globs, excluded directories and the size limit.
+ */
+public class SelectFilterTest
+    extends TestCase
+{
+    public SelectFilterTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( SelectFilterTest.class );
+    }
+
+    @Override
+    protected void setUp()
+    {
+        // MessageLogger needs the JavaFX toolkit: discard warnings instead
+        MessageLoggerFactory.loggerCache.put( SelectFilter.class.getName(), NOPLogger.NOP_LOGGER );
+    }
+
+    public void testNoPatterns()
+    {
+        SelectFilter filter = new SelectFilter( "", "", 0 );
+        assertTrue( filter.includesFile( path( "a.txt" ), 1L << 40 ) );
+        assertTrue( filter.includesFile( path( "dir", "b" ), 0 ) );
+        assertFalse( filter.excludesDirectory( path( "dir" ) ) );
+    }
+
+    public void testNameIncludes()
+    {
+        SelectFilter filter = new SelectFilter( "*.txt, *.docx", "", 0 );
+        assertTrue( filter.includesFile( path( "a.txt" ), 1 ) );
+        assertTrue( "name pattern matches at any depth",
+            filter.includesFile( path( "dir", "sub", "a.txt" ), 1 ) );
+        assertTrue( filter.includesFile( path( "b.docx" ), 1 ) );
+        assertFalse( filter.includesFile( path( "a.pdf" ), 1 ) );
+        assertFalse( filter.includesFile( path( "txt" ), 1 ) );
+    }
+
+    public void testPathIncludes()
+    {
+        SelectFilter filter = new SelectFilter( "docs/*.txt", "", 0 );
+        assertTrue( filter.includesFile( path( "docs", "a.txt" ), 1 ) );
+        assertFalse( filter.includesFile( path( "a.txt" ), 1 ) );
+        assertFalse( filter.includesFile( path( "other", "a.txt" ), 1 ) );
+        assertFalse( "* does not cross directories",
+            filter.includesFile( path( "docs", "sub", "a.txt" ), 1 ) );
+
+        filter = new SelectFilter( "docs/**", "", 0 );
+        assertTrue( filter.includesFile( path( "docs", "sub", "a.txt" ), 1 ) );
+    }
+
+    public void testExcludes()
+    {
+        SelectFilter filter = new SelectFilter( "*.txt", "~*, build/**, .git", 0 );
+        assertFalse( "exclude wins over include", filter.includesFile( path( "~a.txt" ), 1 ) );
+        assertFalse( filter.includesFile( path( "build", "out", "a.txt" ), 1 ) );
+        assertTrue( filter.includesFile( path( "src", "build", "a.txt" ), 1 ) );
+        assertTrue( filter.includesFile( path( "a.txt" ), 1 ) );
+
+        assertTrue( filter.excludesDirectory( path( ".git" ) ) );
+        assertTrue( filter.excludesDirectory( path( "dir", ".git" ) ) );
+        assertTrue( filter.excludesDirectory( path( "build", "out" ) ) );
+        assertFalse( filter.excludesDirectory( path( "src" ) ) );
+    }
+
+    public void testMaxSize()
+    {
+        SelectFilter filter = new SelectFilter( "", "", 100 );
+        assertTrue( filter.includesFile( path( "a.txt" ), 100 ) );
+        assertFalse( filter.includesFile( path( "a.txt" ), 101 ) );
+    }
+
+    public void testInvalidPatternIgnored()
+    {
+        SelectFilter filter = new SelectFilter( "[, *.txt", "", 0 );
+        assertTrue( filter.includesFile( path( "a.txt" ), 1 ) );
+        assertFalse( filter.includesFile( path( "a.pdf" ), 1 ) );
+    }
+
+    private static Path path( String first, String... more )
+    {
+        return Paths.get( first, more );
+    }
+}
@@ -0,0 +1,218 @@
+package com.github.alvanson.xltsearch;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.apache.tika.metadata.Metadata;
+import org.slf4j.helpers.NOPLogger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for TextCache: round trip, least recently used eviction (across restarts), the size
+ * cap, and recovery from corrupt entries.
+ */
+public class TextCacheTest
+    extends TestCase
+{
+    private static final String TEXT = "The quick brown fox jumps over the lazy dog";
+    private static final long SIZE = 100;   // of each (notional) cached file
+
+    private File dir;
+    private File tempDir;
+    private long entryLength;   // every entry holds the same text: same length
+
+    public TextCacheTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( TextCacheTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        // MessageLogger needs the JavaFX toolkit: discard warnings instead
+        MessageLoggerFactory.loggerCache.put( TextCache.class.getName(), NOPLogger.NOP_LOGGER );
+        dir = Files.createTempDirectory( "cache" ).toFile();
+        tempDir = Files.createTempDirectory( "content" ).toFile();
+        TextCache cache = new TextCache( new File( tempDir, "probe" ), Long.MAX_VALUE );
+        put( cache, hashSum( 'F' ) );
+        entryLength = cache.getSize();
+        cache.delete();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        new TextCache( dir, 0 ).delete();
+        new TextCache( tempDir, 0 ).delete();
+    }
+
+    public void testRoundTrip() throws IOException
+    {
+        TextCache cache = new TextCache( dir, Long.MAX_VALUE );
+        assertFalse( cache.get( hashSum( 'A' ), SIZE, newContent(), new Metadata() ) );
+        put( cache, hashSum( 'A' ) );
+        assertTrue( entryLength > 0 );
+        assertEquals( entryLength, cache.getSize() );
+
+        ContentBuffer content = newContent();
+        Metadata metadata = new Metadata();
+        assertTrue( cache.get( hashSum( 'A' ), SIZE, content, metadata ) );
+        assertEquals( TEXT, read( content ) );
+        assertEquals( "text/plain", metadata.get( Metadata.CONTENT_TYPE ) );
+        assertEquals( Arrays.asList( "a", "b" ), Arrays.asList( metadata.getValues( "multi" ) ) );
+        content.release();
+        assertFalse( "size must match",
+            cache.get( hashSum( 'A' ), SIZE + 1, newContent(), new Metadata() ) );
+    }
+
+    public void testLeastRecentlyUsedEvicted()
+    {
+        TextCache cache = new TextCache( dir, 3 * entryLength );
+        put( cache, hashSum( 'A' ) );
+        put( cache, hashSum( 'B' ) );
+        put( cache, hashSum( 'C' ) );
+        assertEquals( "at capacity", 3 * entryLength, cache.getSize() );
+        assertTrue( get( cache, hashSum( 'A' ) ) );     // now most recently used
+
+        // over capacity: evicts B and C, down to 90%
+        put( cache, hashSum( 'D' ) );
+        assertEquals( 2 * entryLength, cache.getSize() );
+        assertEquals( 2, countFiles() );
+        assertFalse( get( cache, hashSum( 'B' ) ) );
+        assertFalse( get( cache, hashSum( 'C' ) ) );
+        assertTrue( get( cache, hashSum( 'A' ) ) );
+        assertTrue( get( cache, hashSum( 'D' ) ) );
+    }
+
+    public void testOrderKeptAcrossRestart()
+    {
+        TextCache cache = new TextCache( dir, Long.MAX_VALUE );
+        put( cache, hashSum( 'A' ) );
+        put( cache, hashSum( 'B' ) );
+        put( cache, hashSum( 'C' ) );
+        // last used in an earlier update: B, then C, then A
+        long now = System.currentTimeMillis();
+        getFile( hashSum( 'B' ) ).setLastModified( now - 3000 );
+        getFile( hashSum( 'C' ) ).setLastModified( now - 2000 );
+        getFile( hashSum( 'A' ) ).setLastModified( now - 1000 );
+
+        cache = new TextCache( dir, 3 * entryLength );
+        assertEquals( "existing entries counted", 3 * entryLength, cache.getSize() );
+        put( cache, hashSum( 'D' ) );
+        assertFalse( get( cache, hashSum( 'B' ) ) );
+        assertFalse( get( cache, hashSum( 'C' ) ) );
+        assertTrue( get( cache, hashSum( 'A' ) ) );
+    }
+
+    public void testCorruptEntry() throws IOException
+    {
+        TextCache cache = new TextCache( dir, Long.MAX_VALUE );
+        put( cache, hashSum( 'A' ) );
+        put( cache, hashSum( 'B' ) );
+        // truncated, and not compressed at all
+        File file = getFile( hashSum( 'A' ) );
+        byte[] bytes = Files.readAllBytes( file.toPath() );
+        write( file, Arrays.copyOf( bytes, bytes.length / 2 ) );
+        write( getFile( hashSum( 'B' ) ), TEXT.getBytes( "UTF-8" ) );
+
+        cache = new TextCache( dir, Long.MAX_VALUE );
+        assertFalse( get( cache, hashSum( 'A' ) ) );
+        assertFalse( get( cache, hashSum( 'B' ) ) );
+        assertFalse( "corrupt entry deleted", file.exists() );
+        assertEquals( 0, cache.getSize() );
+
+        // cached again once parsed
+        put( cache, hashSum( 'A' ) );
+        assertTrue( get( cache, hashSum( 'A' ) ) );
+        assertEquals( entryLength, cache.getSize() );
+    }
+
+    private void put( TextCache cache, String hashSum )
+    {
+        ContentBuffer content = newContent();
+        try
+        {
+            content.write( TEXT );
+        }
+        catch ( IOException ex )
+        {
+            fail( ex.toString() );
+        }
+        Metadata metadata = new Metadata();
+        metadata.set( Metadata.CONTENT_TYPE, "text/plain" );
+        metadata.add( "multi", "a" );
+        metadata.add( "multi", "b" );
+        cache.put( hashSum, SIZE, content, metadata );
+        content.release();
+    }
+
+    private boolean get( TextCache cache, String hashSum )
+    {
+        ContentBuffer content = newContent();
+        boolean result = cache.get( hashSum, SIZE, content, new Metadata() );
+        content.release();
+        return result;
+    }
+
+    private ContentBuffer newContent()
+    {
+        return new ContentBuffer( tempDir, ContentBuffer.DEFAULT_MEMORY_LIMIT );
+    }
+
+    private File getFile( String hashSum )
+    {
+        return new File( dir, hashSum.substring( 0, 2 ) + File.separator + hashSum + "-" + SIZE +
+            ".gz" );
+    }
+
+    private int countFiles()
+    {
+        int count = 0;
+        for ( File sub : dir.listFiles() )
+        {
+            count += sub.listFiles().length;
+        }
+        return count;
+    }
+
+    private static String hashSum( char c )
+    {
+        char[] chars = new char[16];
+        Arrays.fill( chars, c );
+        return new String( chars );
+    }
+
+    private static void write( File file, byte[] bytes ) throws IOException
+    {
+        try ( FileOutputStream out = new FileOutputStream( file ) )
+        {
+            out.write( bytes );
+        }
+    }
+
+    private static String read( ContentBuffer content ) throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        try ( Reader reader = content.getReader() )
+        {
+            char[] chars = new char[64];
+            int n;
+            while ( ( n = reader.read( chars ) ) >= 0 )
+            {
+                sb.append( chars, 0, n );
+            }
+        }
+        return sb.toString();
+    }
+}